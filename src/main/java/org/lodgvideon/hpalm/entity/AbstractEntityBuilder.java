@@ -25,6 +25,9 @@ import java.util.TimeZone;
 
 public abstract class AbstractEntityBuilder {
 
+    /**
+     * Shared instance, which is not thread-safe. Use {@link #formatInteger(long)} instead.
+     */
     protected static final DecimalFormat DF_INTEGER = HpAlmUtil.DF_ID;
 
     protected static final DateFormat DF_DATE = new SimpleDateFormat("yyyy-MM-dd");
@@ -35,6 +38,10 @@ public abstract class AbstractEntityBuilder {
         setTimeZone(TimeZone.getTimeZone("GMT"));
     }
 
+    protected static String formatInteger(long value) {
+        return HpAlmUtil.formatId(value);
+    }
+
     private Entity entity;
 
     private String entityTypeName;
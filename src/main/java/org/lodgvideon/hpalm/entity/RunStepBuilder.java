@@ -24,7 +24,7 @@ public final class RunStepBuilder extends AbstractEntityBuilder {
     }
 
     public RunStepBuilder setTestRunId(long testRunId) {
-        setValue("parent-id", DF_INTEGER.format(testRunId));
+        setValue("parent-id", formatInteger(testRunId));
         return this;
     }
 
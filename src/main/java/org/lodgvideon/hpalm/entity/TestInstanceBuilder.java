@@ -23,22 +23,22 @@ public class TestInstanceBuilder extends AbstractEntityBuilder {
     }
 
     public TestInstanceBuilder setTestSetId(long testSetId) {
-        setValue("cycle-id", DF_INTEGER.format(testSetId));
+        setValue("cycle-id", formatInteger(testSetId));
         return this;
     }
 
     public TestInstanceBuilder setTestId(long testId) {
-        setValue("test-id", DF_INTEGER.format(testId));
+        setValue("test-id", formatInteger(testId));
         return this;
     }
 
     public TestInstanceBuilder setTestConfigId(long testConfigId) {
-        setValue("test-config-id", DF_INTEGER.format(testConfigId));
+        setValue("test-config-id", formatInteger(testConfigId));
         return this;
     }
 
     public TestInstanceBuilder setOrderNumber(long orderNumber) {
-        setValue("test-order", DF_INTEGER.format(orderNumber));
+        setValue("test-order", formatInteger(orderNumber));
         return this;
     }
 
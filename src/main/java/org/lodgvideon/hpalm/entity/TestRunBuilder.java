@@ -31,18 +31,18 @@ public final class TestRunBuilder extends AbstractEntityBuilder {
     }
 
     public TestRunBuilder setTestInstanceId(long testInstanceId) {
-        setValue("testcycl-id", DF_INTEGER.format(testInstanceId));
-        setValue("test-instance", DF_INTEGER.format(testInstanceId));
+        setValue("testcycl-id", formatInteger(testInstanceId));
+        setValue("test-instance", formatInteger(testInstanceId));
         return this;
     }
 
     public TestRunBuilder setTestSetId(long testSetId) {
-        setValue("cycle-id", DF_INTEGER.format(testSetId));
+        setValue("cycle-id", formatInteger(testSetId));
         return this;
     }
 
     public TestRunBuilder setTestId(long testId) {
-        setValue("test-id", DF_INTEGER.format(testId));
+        setValue("test-id", formatInteger(testId));
         return this;
     }
 
@@ -72,7 +72,7 @@ public final class TestRunBuilder extends AbstractEntityBuilder {
     }
 
     public TestRunBuilder setDuration(long duration) {
-        setValue("duration", DF_INTEGER.format(duration));
+        setValue("duration", formatInteger(duration));
         return this;
     }
 
@@ -23,7 +23,7 @@ public class TestSetBuilder extends AbstractEntityBuilder {
     }
 
     public TestSetBuilder setParentId(long parentId) {
-        setValue("parent-id", DF_INTEGER.format(parentId));
+        setValue("parent-id", formatInteger(parentId));
         return this;
     }
 
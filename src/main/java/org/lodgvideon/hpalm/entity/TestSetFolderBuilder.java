@@ -22,7 +22,7 @@ public class TestSetFolderBuilder extends AbstractEntityBuilder {
     }
 
     public TestSetFolderBuilder setParentId(long id) {
-        setValue("parent-id", DF_INTEGER.format(id));
+        setValue("parent-id", formatInteger(id));
         return this;
     }
 
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the page size of queries based on the response time and size of the pages received so far. The page size is set
+ * so that a page is expected to take about the target latency, and to stay below the maximum page size in bytes. To avoid
+ * oscillation, the page size changes at most by factor 2 per page. <br>
+ * An instance can be shared between queries (of the same entity type, for meaningful results) to reuse the learned page
+ * size, see {@link QueryOptions#setAdaptivePageSizer(AdaptivePageSizer)}. Instances are thread-safe.
+ */
+public class AdaptivePageSizer {
+
+    public static final int DEFAULT_INITIAL_PAGE_SIZE = 100;
+
+    public static final int DEFAULT_MIN_PAGE_SIZE = 10;
+
+    /**
+     * Default maximum page size, which is also the default maximum of HP ALM servers.
+     */
+    public static final int DEFAULT_MAX_PAGE_SIZE = 2000;
+
+    public static final long DEFAULT_TARGET_LATENCY_MILLIS = 2000;
+
+    public static final long DEFAULT_MAX_PAGE_BYTES = 16 * 1024 * 1024;
+
+    private final int minPageSize;
+
+    private final int maxPageSize;
+
+    private final long targetLatencyNanos;
+
+    private final long maxPageBytes;
+
+    private int pageSize;
+
+    /**
+     * Creates a new page sizer with default settings.
+     */
+    public AdaptivePageSizer() {
+        this(DEFAULT_INITIAL_PAGE_SIZE, DEFAULT_MIN_PAGE_SIZE, DEFAULT_MAX_PAGE_SIZE, DEFAULT_TARGET_LATENCY_MILLIS,
+                DEFAULT_MAX_PAGE_BYTES);
+    }
+
+    /**
+     * Creates a new page sizer.
+     *
+     * @param initialPageSize     Page size for the first page.
+     * @param minPageSize         Lower bound for the page size.
+     * @param maxPageSize         Upper bound for the page size.
+     * @param targetLatencyMillis Desired time to retrieve and parse one page, in milliseconds.
+     * @param maxPageBytes        Maximum desired size of one page, in bytes.
+     */
+    public AdaptivePageSizer(int initialPageSize, int minPageSize, int maxPageSize, long targetLatencyMillis,
+                             long maxPageBytes) {
+        if (minPageSize < 1 || maxPageSize < minPageSize || initialPageSize < minPageSize || initialPageSize > maxPageSize) {
+            throw new IllegalArgumentException("Invalid page sizes; required: 1 <= min <= initial <= max");
+        }
+        this.pageSize = initialPageSize;
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.maxPageBytes = maxPageBytes;
+    }
+
+    /**
+     * @return the page size to use for the next page
+     */
+    public synchronized int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Adjusts the page size according to a received page.
+     *
+     * @param entityCount  Count of entities in the page.
+     * @param latencyNanos Time to retrieve and parse the page, in nanoseconds.
+     * @param bytes        Size of the page, in bytes.
+     */
+    public synchronized void recordPage(int entityCount, long latencyNanos, long bytes) {
+        if (entityCount <= 0) {
+            return;
+        }
+
+        double nanosPerEntity = Math.max(1.0, (double) latencyNanos / entityCount);
+        double bytesPerEntity = Math.max(1.0, (double) bytes / entityCount);
+
+        double next = Math.min(targetLatencyNanos / nanosPerEntity, maxPageBytes / bytesPerEntity);
+        next = Math.max(pageSize / 2.0, Math.min(pageSize * 2.0, next));
+
+        pageSize = (int) Math.max(minPageSize, Math.min(maxPageSize, next));
+    }
+
+}
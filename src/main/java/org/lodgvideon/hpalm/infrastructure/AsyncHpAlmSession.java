@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.lodgvideon.hpalm.entity.Entity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchronous facade for an {@link HpAlmSession}. Every operation is executed on the configured executor and returns a
+ * {@link CompletableFuture}, so callers can issue many requests concurrently and compose dependent requests without blocking,
+ * e.g.:
+ *
+ * <pre>
+ * async.createEntity(run)
+ *     .thenCompose(r -&gt; async.createEntity(stepBuilder.setTestRunId(r.getId()).create()))
+ *     .thenCompose(s -&gt; async.createAttachment(s, "log.txt", logData));
+ * </pre>
+ * <p>
+ * Failed operations complete the future exceptionally with the original {@link IOException} or {@link HpAlmException}.
+ * Operations are executed concurrently on the wrapped session.
+ */
+public class AsyncHpAlmSession {
+
+    private final HpAlmSession session;
+
+    private final Executor executor;
+
+    private final ExecutorService ownedExecutor;
+
+    /**
+     * Creates a new asynchronous facade running on its own executor. Virtual threads are used if supported by the JVM. Call
+     * {@link #close()} to release the executor.
+     *
+     * @param session Session to perform the operations on.
+     */
+    public AsyncHpAlmSession(HpAlmSession session) {
+        this.session = session;
+        this.ownedExecutor = HpAlmExecutors.newBlockingIoExecutor("hpalm-async");
+        this.executor = ownedExecutor;
+    }
+
+    /**
+     * Creates a new asynchronous facade running on the given executor.
+     *
+     * @param session  Session to perform the operations on.
+     * @param executor Executor to run the operations on. The executor is not shut down by {@link #close()}.
+     */
+    public AsyncHpAlmSession(HpAlmSession session, Executor executor) {
+        this.session = session;
+        this.executor = executor;
+        this.ownedExecutor = null;
+    }
+
+    public HpAlmSession getSession() {
+        return session;
+    }
+
+    /**
+     * Executes the given callback on the executor of this facade.
+     *
+     * @param callback Callback to execute.
+     * @param <T>      Type of the result of the callback.
+     * @return A future for the result of the callback.
+     */
+    public <T> CompletableFuture<T> submit(final HpAlmSessionCallback<T> callback) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(callback.doWithSession(session));
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public CompletableFuture<Entity> createEntity(final Entity entity) {
+        return submit(new HpAlmSessionCallback<Entity>() {
+            @Override
+            public Entity doWithSession(HpAlmSession session) throws IOException, HpAlmException {
+                return session.createEntity(entity);
+            }
+        });
+    }
+
+    public CompletableFuture<Entity> updateEntity(final long id, final Entity updateValues) {
+        return submit(new HpAlmSessionCallback<Entity>() {
+            @Override
+            public Entity doWithSession(HpAlmSession session) throws IOException, HpAlmException {
+                return session.updateEntity(id, updateValues);
+            }
+        });
+    }
+
+    public CompletableFuture<Void> deleteEntity(final Entity entity) {
+        return submit(new HpAlmSessionCallback<Void>() {
+            @Override
+            public Void doWithSession(HpAlmSession session) throws IOException, HpAlmException {
+                session.deleteEntity(entity);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Entity> getEntity(final String entityName, final long id) {
+        return submit(new HpAlmSessionCallback<Entity>() {
+            @Override
+            public Entity doWithSession(HpAlmSession session) throws IOException, HpAlmException {
+                return session.getEntity(entityName, id);
+            }
+        });
+    }
+
+    public CompletableFuture<Entity> getEntity(final String entityName, final long id, final String... fields) {
+        return submit(new HpAlmSessionCallback<Entity>() {
+            @Override
+            public Entity doWithSession(HpAlmSession session) throws IOException, HpAlmException {
+                return session.getEntity(entityName, id, fields);
+            }
+        });
+    }
+
+    /**
+     * Queries entities asynchronously. Only the first page of the result is retrieved asynchronously; iterating over the
+     * returned collection may block when further pages are retrieved.
+     *
+     * @param entityName Type name of the entities to query.
+     * @param query      HP ALM query expression, or <code>null</code> to query all entities.
+     * @return A future for the collection of matching entities.
+     */
+    public CompletableFuture<EntityCollection> queryEntities(final String entityName, final String query) {
+        return submit(new HpAlmSessionCallback<EntityCollection>() {
+            @Override
+            public EntityCollection doWithSession(HpAlmSession session) throws IOException, HpAlmException {
+                return session.queryEntities(entityName, query);
+            }
+        });
+    }
+
+    /**
+     * Queries entities asynchronously, using the given options. Only the first page of the result is retrieved
+     * asynchronously.
+     *
+     * @param entityName Type name of the entities to query.
+     * @param query      HP ALM query expression, or <code>null</code> to query all entities.
+     * @param options    Options for the query, e.g. the fields to retrieve, or <code>null</code> for defaults.
+     * @return A future for the collection of matching entities.
+     */
+    public CompletableFuture<EntityCollection> queryEntities(final String entityName, final String query,
+                                                             final QueryOptions options) {
+        return submit(new HpAlmSessionCallback<EntityCollection>() {
+            @Override
+            public EntityCollection doWithSession(HpAlmSession session) throws IOException, HpAlmException {
+                return session.queryEntities(entityName, query, options);
+            }
+        });
+    }
+
+    /**
+     * Creates an attachment asynchronously. The given stream is read on the executor thread and must not be used or closed
+     * by the caller until the returned future has completed.
+     *
+     * @param entity         Entity to attach the data to.
+     * @param fileName       File name of the attachment.
+     * @param attachmentData Data of the attachment.
+     * @return A future for the created attachment entity.
+     */
+    public CompletableFuture<Entity> createAttachment(final Entity entity, final String fileName,
+                                                      final InputStream attachmentData) {
+        return submit(new HpAlmSessionCallback<Entity>() {
+            @Override
+            public Entity doWithSession(HpAlmSession session) throws IOException, HpAlmException {
+                return session.createAttachment(entity, fileName, attachmentData);
+            }
+        });
+    }
+
+    /**
+     * Shuts down the executor of this facade, if it has been created by this facade. Running operations are completed.
+     */
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.lodgvideon.hpalm.entity.Entity;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Incremental feed of the entities of one type which have been created or modified since a given
+ * {@link ChangeWatermark}, based on the <code>last-modified</code> field. The cost of a poll scales with the count of
+ * changes, not with the count of entities. <br>
+ * As HP ALM sets <code>last-modified</code> when a change is made, not when it becomes visible, a change can appear with a
+ * timestamp slightly older than changes already seen. Each poll therefore re-queries a window of the configured clock skew
+ * before the watermark, and skips the entities which have already been reported with the same timestamp. Entities sharing
+ * the same timestamp are paged by ID, so no entity is skipped even if more entities than fit into one page have the same
+ * timestamp. <br>
+ * Changes are reported at least once: if the handler fails, the poll should be repeated with the previous watermark.
+ * Instances are not thread-safe.
+ */
+public class ChangeFeed {
+
+    /**
+     * Default window before the watermark which is queried again on each poll.
+     */
+    public static final long DEFAULT_CLOCK_SKEW_MILLIS = 60000;
+
+    private static final String LAST_MODIFIED = "last-modified";
+
+    private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+    private final HpAlmSession session;
+
+    private final String entityName;
+
+    private String query;
+
+    private String[] fields;
+
+    private int pageSize = 500;
+
+    private long clockSkewMillis = DEFAULT_CLOCK_SKEW_MILLIS;
+
+    /**
+     * Creates a change feed for the given entity type.
+     *
+     * @param session    Session to use for queries.
+     * @param entityName Type name of the entities, e.g. <code>run</code>.
+     */
+    public ChangeFeed(HpAlmSession session, String entityName) {
+        this.session = session;
+        this.entityName = entityName;
+    }
+
+    /**
+     * Restricts the feed to entities matching the given query. The query must not filter on the <code>id</code> or
+     * <code>last-modified</code> fields.
+     *
+     * @param query HP ALM query expression, or <code>null</code> to report changes of all entities.
+     * @return This object.
+     */
+    public ChangeFeed setQuery(String query) {
+        this.query = query;
+        return this;
+    }
+
+    /**
+     * Restricts the fields retrieved for changed entities. The <code>last-modified</code> field is always retrieved.
+     *
+     * @param fields Names of the fields to retrieve, or none to retrieve all fields.
+     * @return This object.
+     */
+    public ChangeFeed setFields(String... fields) {
+        if (fields == null || fields.length == 0) {
+            this.fields = null;
+        } else {
+            Set<String> names = new LinkedHashSet<String>(Arrays.asList(fields));
+            names.add(LAST_MODIFIED);
+            this.fields = names.toArray(new String[names.size()]);
+        }
+        return this;
+    }
+
+    /**
+     * @param pageSize Count of entities to request per page.
+     * @return This object.
+     */
+    public ChangeFeed setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * @param clockSkewMillis Window before the watermark to query again on each poll, in milliseconds. Should cover the
+     *                        maximum delay between setting the <code>last-modified</code> timestamp of a change and its
+     *                        commit, and the clock differences between the servers of an HP ALM cluster.
+     * @return This object.
+     */
+    public ChangeFeed setClockSkewMillis(long clockSkewMillis) {
+        if (clockSkewMillis < 0) {
+            throw new IllegalArgumentException("Clock skew must not be negative");
+        }
+        this.clockSkewMillis = clockSkewMillis;
+        return this;
+    }
+
+    /**
+     * Reports all entities created or modified since the given watermark to the given handler, ordered by
+     * <code>last-modified</code>, and returns the new watermark.
+     *
+     * @param since   Watermark returned by the previous poll, or {@link ChangeWatermark#INITIAL} to report all entities.
+     * @param handler Handler to receive the changed entities.
+     * @return The watermark to pass to the next poll.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public ChangeWatermark poll(ChangeWatermark since, ChangeHandler handler) throws IOException, HpAlmException {
+        Map<Long, String> reported = new HashMap<Long, String>(since.getRecentEntities());
+        String highWatermark = since.getLastModified();
+
+        // keyset over (last-modified, id): after a full page, first drain the entities with the same timestamp by ID
+        String filter = highWatermark == null ? null : LAST_MODIFIED + "[>= '" + shift(highWatermark, -clockSkewMillis)
+                + "']";
+        // timestamp of the entities currently drained, or null
+        String drainedTimestamp = null;
+        while (true) {
+            QueryOptions options = new QueryOptions().setPageSize(pageSize).setFields(fields)
+                    .setOrderBy(drainedTimestamp != null ? "id[ASC]" : LAST_MODIFIED + "[ASC]; id[ASC]");
+            Iterator<Entity> iter = session.queryEntities(entityName, combine(query, filter), options).iterator();
+
+            Entity last = null;
+            int received = 0;
+            while (received < pageSize && iter.hasNext()) {
+                last = iter.next();
+                received++;
+
+                String lastModified = last.getStringFieldValue(LAST_MODIFIED);
+                if (lastModified != null && lastModified.equals(reported.get(last.getId()))) {
+                    continue;
+                }
+                handler.handleChange(last);
+                if (lastModified != null) {
+                    reported.put(last.getId(), lastModified);
+                    if (highWatermark == null || lastModified.compareTo(highWatermark) > 0) {
+                        highWatermark = lastModified;
+                    }
+                }
+            }
+
+            String lastModified = last == null ? null : last.getStringFieldValue(LAST_MODIFIED);
+            if (received == pageSize && iter.hasNext() && lastModified != null) {
+                // more entities may follow with the same timestamp
+                filter = LAST_MODIFIED + "['" + lastModified + "']; id[> " + HpAlmUtil.formatId(last.getId()) + "]";
+                drainedTimestamp = lastModified;
+            } else if (drainedTimestamp != null) {
+                filter = LAST_MODIFIED + "[> '" + drainedTimestamp + "']";
+                drainedTimestamp = null;
+            } else {
+                break;
+            }
+        }
+
+        if (highWatermark == null) {
+            return since;
+        }
+
+        // only remember entities which can be returned again by the next poll
+        String windowStart = shift(highWatermark, -clockSkewMillis);
+        Map<Long, String> recentEntities = new HashMap<Long, String>();
+        for (Map.Entry<Long, String> entry : reported.entrySet()) {
+            if (entry.getValue().compareTo(windowStart) >= 0) {
+                recentEntities.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return new ChangeWatermark(highWatermark, recentEntities);
+    }
+
+    private static String combine(String query, String filter) {
+        if (query == null) {
+            return filter;
+        }
+        return filter == null ? query : query + "; " + filter;
+    }
+
+    private static String shift(String timestamp, long millis) {
+        // UTC avoids daylight saving gaps; only the distance between timestamps matters
+        DateFormat format = new SimpleDateFormat(DATE_FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            Date date = format.parse(timestamp);
+            return format.format(new Date(date.getTime() + millis));
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Invalid HP ALM timestamp: " + timestamp);
+        }
+    }
+
+}
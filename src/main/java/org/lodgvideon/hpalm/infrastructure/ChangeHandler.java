@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.lodgvideon.hpalm.entity.Entity;
+
+import java.io.IOException;
+
+/**
+ * Handler receiving the entities reported by a {@link ChangeFeed}.
+ */
+public interface ChangeHandler {
+
+    /**
+     * Handles a created or modified entity.
+     *
+     * @param entity The created or modified entity.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public void handleChange(Entity entity) throws IOException, HpAlmException;
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Position of a {@link ChangeFeed}, i.e. the point up to which changes have been reported. Consists of the highest
+ * <code>last-modified</code> timestamp seen, and the IDs and timestamps of the entities reported within the clock skew
+ * window before that timestamp, which are reported again only if they change again. <br>
+ * Instances are immutable. To persist a watermark between runs, use Java serialization or {@link #toString()} and
+ * {@link #parse(String)}.
+ */
+public final class ChangeWatermark implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Watermark to start a change feed with; reports all existing entities as changed.
+     */
+    public static final ChangeWatermark INITIAL = new ChangeWatermark(null, Collections.<Long, String>emptyMap());
+
+    private final String lastModified;
+
+    private final Map<Long, String> recentEntities;
+
+    ChangeWatermark(String lastModified, Map<Long, String> recentEntities) {
+        this.lastModified = lastModified;
+        this.recentEntities = Collections.unmodifiableMap(new TreeMap<Long, String>(recentEntities));
+    }
+
+    /**
+     * @return the highest <code>last-modified</code> timestamp seen, in HP ALM format, or <code>null</code> if no entity has
+     * been seen yet
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the <code>last-modified</code> timestamps of the recently reported entities, by entity ID
+     */
+    Map<Long, String> getRecentEntities() {
+        return recentEntities;
+    }
+
+    /**
+     * Returns a string representation of this watermark, which can be converted back using {@link #parse(String)}.
+     *
+     * @return A string representation of this watermark.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(lastModified == null ? "" : lastModified);
+        for (Map.Entry<Long, String> entry : recentEntities.entrySet()) {
+            sb.append('|').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses the string representation of a watermark, as returned by {@link #toString()}.
+     *
+     * @param value String representation of a watermark.
+     * @return The watermark.
+     * @throws IllegalArgumentException If the given string is not a valid watermark.
+     */
+    public static ChangeWatermark parse(String value) {
+        String[] parts = value.split("\\|");
+        Map<Long, String> recentEntities = new HashMap<Long, String>();
+        for (int i = 1; i < parts.length; i++) {
+            int index = parts[i].indexOf('=');
+            if (index < 1) {
+                throw new IllegalArgumentException("Invalid change watermark: " + value);
+            }
+            try {
+                recentEntities.put(Long.valueOf(parts[i].substring(0, index)), parts[i].substring(index + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid change watermark: " + value);
+            }
+        }
+        return new ChangeWatermark(parts[0].length() == 0 ? null : parts[0], recentEntities);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ChangeWatermark)) {
+            return false;
+        }
+        ChangeWatermark other = (ChangeWatermark) obj;
+        return (lastModified == null ? other.lastModified == null : lastModified.equals(other.lastModified))
+                && recentEntities.equals(other.recentEntities);
+    }
+
+    @Override
+    public int hashCode() {
+        return (lastModified == null ? 0 : lastModified.hashCode()) * 31 + recentEntities.hashCode();
+    }
+
+}
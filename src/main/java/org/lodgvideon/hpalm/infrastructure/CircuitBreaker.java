@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker for the requests of one or more {@link RestConnector}s. After a number of consecutive failures (I/O errors
+ * or the status codes 502, 503 and 504), the breaker opens, and all requests fail immediately with a
+ * {@link CircuitBreakerOpenException} instead of blocking on an unavailable server. After the open duration has elapsed, the
+ * breaker is half-open and lets a single trial request pass. If this request succeeds, the breaker closes again; otherwise,
+ * it opens for another period.
+ * <p>
+ * Share one instance between all connectors talking to the same server, so that all of them back off together.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    public static final long DEFAULT_OPEN_DURATION_MILLIS = 30000;
+
+    /**
+     * State of a circuit breaker.
+     */
+    public enum State {
+        /**
+         * Requests pass; failures are counted.
+         */
+        CLOSED,
+        /**
+         * All requests are rejected.
+         */
+        OPEN,
+        /**
+         * A single trial request passes; all other requests are rejected.
+         */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+
+    private final long openDurationNanos;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private volatile State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openedAt;
+
+    private boolean trialInFlight;
+
+    /**
+     * Creates a new circuit breaker with default settings.
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION_MILLIS);
+    }
+
+    /**
+     * Creates a new circuit breaker.
+     *
+     * @param failureThreshold   Count of consecutive failures after which the breaker opens.
+     * @param openDurationMillis Time in milliseconds after which an open breaker lets a trial request pass.
+     */
+    public CircuitBreaker(int failureThreshold, long openDurationMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be positive");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+    }
+
+    /**
+     * Checks whether a request may be sent now. Every permitted request must be followed by a call to
+     * {@link #recordSuccess()} or {@link #recordFailure()}.
+     *
+     * @throws CircuitBreakerOpenException If the breaker is open, or half-open with a trial request in flight.
+     */
+    public synchronized void acquirePermission() throws CircuitBreakerOpenException {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openDurationNanos) {
+            transitionTo(State.HALF_OPEN);
+        }
+
+        if (state == State.CLOSED) {
+            return;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return;
+        }
+
+        rejectedCount.incrementAndGet();
+        throw new CircuitBreakerOpenException("HP ALM server is unavailable; circuit breaker is " + state, state);
+    }
+
+    /**
+     * Records a successful request. Closes the breaker if it is half-open.
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        if (state != State.CLOSED) {
+            transitionTo(State.CLOSED);
+        }
+    }
+
+    /**
+     * Records a failed request. Opens the breaker if it is half-open, or if the failure threshold has been reached.
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            openedAt = System.nanoTime();
+            transitionTo(State.OPEN);
+        }
+    }
+
+    private void transitionTo(State newState) {
+        LOG.info("Circuit breaker changed from " + state + " to " + newState);
+        state = newState;
+    }
+
+    /**
+     * @return the current state of the breaker. An open breaker whose open duration has elapsed is reported as
+     * {@link State#OPEN} until the next request is attempted.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the count of requests rejected by this breaker
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getOpenDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(openDurationNanos);
+    }
+
+}
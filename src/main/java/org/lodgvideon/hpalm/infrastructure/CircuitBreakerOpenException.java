@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link RestConnector} instead of sending a request while its {@link CircuitBreaker} is open.
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+    private static final long serialVersionUID = -3107516416153263125L;
+
+    private final CircuitBreaker.State state;
+
+    public CircuitBreakerOpenException(String message, CircuitBreaker.State state) {
+        super(message);
+        this.state = state;
+    }
+
+    /**
+     * @return the state of the circuit breaker when the request was rejected
+     */
+    public CircuitBreaker.State getState() {
+        return state;
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit for the count of concurrent requests to one HP ALM server. The limit follows an AIMD scheme (additive
+ * increase, multiplicative decrease): It grows by one per round of successful requests with normal latency, and is
+ * multiplied by {@value #BACKOFF_RATIO} when a request failed because of overload (I/O error, HTTP 429, 502, 503 or 504), or
+ * took more than {@value #LATENCY_TOLERANCE} times the baseline latency. The baseline is the minimum latency of the most recent
+ * {@value #BASELINE_WINDOW} requests.
+ * <p>
+ * Callers exceeding the limit wait up to the configured maximum wait time for a free slot, and fail with a
+ * {@link ConcurrencyLimitExceededException} afterwards. Share one instance between all connectors talking to the same
+ * server, see {@link RestConnector#setConcurrencyLimiter(ConcurrencyLimiter)}.
+ */
+public class ConcurrencyLimiter {
+
+    public static final int DEFAULT_INITIAL_LIMIT = 10;
+
+    public static final int DEFAULT_MIN_LIMIT = 1;
+
+    public static final int DEFAULT_MAX_LIMIT = 100;
+
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 30000;
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    private static final int BASELINE_WINDOW = 100;
+
+    /**
+     * Latency increases below this amount are considered noise.
+     */
+    private static final long LATENCY_NOISE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final long maxWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition slotAvailable = lock.newCondition();
+
+    private double limit;
+
+    private int inFlight;
+
+    private int waiting;
+
+    private long rejectedCount;
+
+    private long baselineNanos = -1;
+
+    private long windowMinNanos = Long.MAX_VALUE;
+
+    private int windowSamples;
+
+    private long lastDecreaseNanos;
+
+    /**
+     * Creates a new limiter with default settings.
+     */
+    public ConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * Creates a new limiter.
+     *
+     * @param initialLimit  Initial count of concurrent requests.
+     * @param minLimit      Lower bound for the limit.
+     * @param maxLimit      Upper bound for the limit.
+     * @param maxWaitMillis Maximum time in milliseconds a request waits for a free slot.
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long maxWaitMillis) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid limits; required: 1 <= min <= initial <= max");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * Waits for a free request slot. Every successful call must be followed by exactly one call to
+     * {@link #release(long, boolean)}.
+     *
+     * @return A token to pass to {@link #release(long, boolean)}.
+     * @throws ConcurrencyLimitExceededException If no slot became available within the maximum wait time.
+     * @throws InterruptedIOException            If the current thread has been interrupted while waiting.
+     */
+    public long acquire() throws ConcurrencyLimitExceededException, InterruptedIOException {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        lock.lock();
+        try {
+            waiting++;
+            try {
+                while (inFlight >= (int) limit) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        rejectedCount++;
+                        throw new ConcurrencyLimitExceededException("No request slot available within "
+                                + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + " ms; current limit is " + (int) limit);
+                    }
+                    slotAvailable.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a request slot");
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Frees a request slot, and adjusts the limit according to the outcome of the request.
+     *
+     * @param token      Token returned by {@link #acquire()}.
+     * @param overloaded <code>true</code> if the request failed in a way indicating overload of the server.
+     */
+    public void release(long token, boolean overloaded) {
+        long now = System.nanoTime();
+        long latency = now - token;
+        lock.lock();
+        try {
+            inFlight--;
+
+            if (overloaded) {
+                decrease(now);
+            } else {
+                updateBaseline(latency);
+                if (latency > baselineNanos * LATENCY_TOLERANCE && latency - baselineNanos > LATENCY_NOISE_NANOS) {
+                    decrease(now);
+                } else if (inFlight + 1 >= limit / 2) {
+                    // only grow if the current limit is actually used
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+            }
+
+            slotAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees a request slot without adjusting the limit, e.g. if the request has not been sent at all.
+     *
+     * @param token Token returned by {@link #acquire()}.
+     */
+    public void cancel(long token) {
+        lock.lock();
+        try {
+            inFlight--;
+            slotAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateBaseline(long latency) {
+        windowMinNanos = Math.min(windowMinNanos, latency);
+        if (baselineNanos < 0 || latency < baselineNanos) {
+            baselineNanos = latency;
+        }
+        if (++windowSamples >= BASELINE_WINDOW) {
+            // let the baseline follow permanent latency changes of the server
+            baselineNanos = windowMinNanos;
+            windowMinNanos = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+    }
+
+    private void decrease(long now) {
+        // requests failing together are one congestion signal; back off at most once per baseline latency
+        if (lastDecreaseNanos != 0 && now - lastDecreaseNanos < Math.max(baselineNanos, 0)) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+    }
+
+    /**
+     * @return the current count of concurrent requests allowed
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the count of requests currently in flight
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the count of requests currently waiting for a slot
+     */
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the count of requests which gave up waiting for a slot
+     */
+    public long getRejectedCount() {
+        lock.lock();
+        try {
+            return rejectedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.lodgvideon.hpalm.entity.Entity;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded cache of entities retrieved by ID, see {@link HpAlmSession#setEntityCache(EntityCache)}. Entries are keyed by
+ * project, entity type and ID, so one cache can be shared by all sessions of a process, e.g. using {@link #getShared()}.
+ * When the cache is full, the least recently used entry is evicted. Entries expire after the time-to-live of their entity
+ * type. <br>
+ * The cache stores and returns copies of the entities, so callers may modify returned entities. Entities updated or
+ * deleted through a session using the cache are removed from it; changes made by other clients become visible when the
+ * entry expires. <br>
+ * To not cache an entity retrieved while it is being modified, a loader obtains the generation of the key using
+ * {@link #getGeneration(String, String, long)} before retrieving the entity, and passes it to
+ * {@link #put(String, String, Entity, long)}. Entities invalidated in between are not stored. <br>
+ * Instances are thread-safe.
+ */
+public class EntityCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final int maxSize;
+
+    private final long defaultTimeToLiveNanos;
+
+    private final Map<String, Long> timeToLiveNanos = new ConcurrentHashMap<String, Long>();
+
+    // access-ordered, guarded by this
+    private final LinkedHashMap<String, CacheEntry> entries;
+
+    // generation of the last invalidation per key, insertion-ordered; guarded by this
+    private final LinkedHashMap<String, Long> generations;
+
+    // guarded by this
+    private final Map<String, Long> typeGenerations = new HashMap<String, Long>();
+
+    // guarded by this
+    private long lastGeneration;
+
+    // generation of the last invalidation of all entries; guarded by this
+    private long allGeneration;
+
+    // highest generation of keys removed from generations; guarded by this
+    private long evictedGeneration;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Creates a new cache with default size and time-to-live.
+     */
+    public EntityCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize          Maximum count of cached entities.
+     * @param defaultTimeToLive Time-to-live of entities of types without own time-to-live.
+     * @param unit             Unit of the time-to-live.
+     */
+    public EntityCache(int maxSize, long defaultTimeToLive, TimeUnit unit) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be at least 1");
+        }
+        this.maxSize = maxSize;
+        this.defaultTimeToLiveNanos = unit.toNanos(defaultTimeToLive);
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > EntityCache.this.maxSize) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        // keys invalidated long ago are folded into one generation, which only causes loaders to not store entities
+        this.generations = new LinkedHashMap<String, Long>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() > EntityCache.this.maxSize) {
+                    evictedGeneration = Math.max(evictedGeneration, eldest.getValue().longValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cache shared by all users of this class loader, with default size and time-to-live
+     */
+    public static EntityCache getShared() {
+        return SharedCacheHolder.INSTANCE;
+    }
+
+    /**
+     * Sets the time-to-live for entities of the given type, e.g. a long one for rarely changing tests and folders. A
+     * time-to-live of 0 disables caching for the type.
+     *
+     * @param entityType Type name of the entities, e.g. <code>test</code>.
+     * @param timeToLive Time-to-live of the entities.
+     * @param unit       Unit of the time-to-live.
+     */
+    public void setTimeToLive(String entityType, long timeToLive, TimeUnit unit) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("Time-to-live must not be negative");
+        }
+        timeToLiveNanos.put(entityType, Long.valueOf(unit.toNanos(timeToLive)));
+    }
+
+    /**
+     * Returns a copy of the cached entity with the given key, if present and not expired.
+     *
+     * @param scope      Scope of the entity, e.g. the URL of the project.
+     * @param entityType Type name of the entity.
+     * @param id         ID of the entity.
+     * @return A copy of the cached entity, or <code>null</code> if not cached.
+     */
+    public Entity get(String scope, String entityType, long id) {
+        String key = buildKey(scope, entityType, id);
+        Entity entity = null;
+        synchronized (this) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt - System.nanoTime() > 0) {
+                    entity = entry.entity;
+                } else {
+                    entries.remove(key);
+                }
+            }
+        }
+
+        if (entity == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return new Entity(entity);
+    }
+
+    /**
+     * Returns the generation of the given key, which changes whenever the key is invalidated.
+     *
+     * @param scope      Scope of the entity, e.g. the URL of the project.
+     * @param entityType Type name of the entity.
+     * @param id         ID of the entity.
+     * @return The current generation of the key.
+     */
+    public synchronized long getGeneration(String scope, String entityType, long id) {
+        long generation = Math.max(allGeneration, evictedGeneration);
+        Long typeGeneration = typeGenerations.get(entityType);
+        if (typeGeneration != null) {
+            generation = Math.max(generation, typeGeneration.longValue());
+        }
+        Long keyGeneration = generations.get(buildKey(scope, entityType, id));
+        if (keyGeneration != null) {
+            generation = Math.max(generation, keyGeneration.longValue());
+        }
+        return generation;
+    }
+
+    /**
+     * Stores a copy of the given entity.
+     *
+     * @param scope      Scope of the entity, e.g. the URL of the project.
+     * @param entityType Type name of the entity.
+     * @param entity     Entity to cache.
+     */
+    public void put(String scope, String entityType, Entity entity) {
+        long ttl = getTimeToLiveNanos(entityType);
+        if (ttl <= 0) {
+            return;
+        }
+        CacheEntry entry = new CacheEntry(new Entity(entity), System.nanoTime() + ttl);
+        synchronized (this) {
+            entries.put(buildKey(scope, entityType, entity.getId()), entry);
+        }
+    }
+
+    /**
+     * Stores a copy of the given entity, unless its key has been invalidated since the given generation was obtained.
+     *
+     * @param scope      Scope of the entity, e.g. the URL of the project.
+     * @param entityType Type name of the entity.
+     * @param entity     Entity to cache.
+     * @param generation Generation of the key obtained before the entity was retrieved.
+     * @return <code>true</code> if the entity has been stored, <code>false</code> otherwise.
+     */
+    public boolean put(String scope, String entityType, Entity entity, long generation) {
+        long ttl = getTimeToLiveNanos(entityType);
+        if (ttl <= 0) {
+            return false;
+        }
+        CacheEntry entry = new CacheEntry(new Entity(entity), System.nanoTime() + ttl);
+        synchronized (this) {
+            if (getGeneration(scope, entityType, entity.getId()) != generation) {
+                return false;
+            }
+            entries.put(buildKey(scope, entityType, entity.getId()), entry);
+            return true;
+        }
+    }
+
+    /**
+     * Removes the entity with the given key from the cache.
+     *
+     * @param scope      Scope of the entity, e.g. the URL of the project.
+     * @param entityType Type name of the entity.
+     * @param id         ID of the entity.
+     */
+    public synchronized void invalidate(String scope, String entityType, long id) {
+        String key = buildKey(scope, entityType, id);
+        entries.remove(key);
+        // re-insert to keep the most recent invalidations
+        generations.remove(key);
+        generations.put(key, Long.valueOf(++lastGeneration));
+    }
+
+    /**
+     * Removes all entities of the given type from the cache, in all scopes.
+     *
+     * @param entityType Type name of the entities.
+     */
+    public synchronized void invalidateType(String entityType) {
+        typeGenerations.put(entityType, Long.valueOf(++lastGeneration));
+        String infix = " " + entityType + "/";
+        Iterator<String> iter = entries.keySet().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().contains(infix)) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all entities from the cache.
+     */
+    public synchronized void invalidateAll() {
+        allGeneration = ++lastGeneration;
+        entries.clear();
+    }
+
+    /**
+     * @return the count of entities currently cached, including expired entries not yet removed
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the count of entries removed because the cache was full
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return the ratio of hits to all lookups, or 0 if there has not been any lookup
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private long getTimeToLiveNanos(String entityType) {
+        Long ttl = timeToLiveNanos.get(entityType);
+        return ttl != null ? ttl.longValue() : defaultTimeToLiveNanos;
+    }
+
+    private static String buildKey(String scope, String entityType, long id) {
+        return scope + " " + entityType + "/" + id;
+    }
+
+    private static final class CacheEntry {
+
+        private final Entity entity;
+
+        private final long expiresAt;
+
+        private CacheEntry(Entity entity, long expiresAt) {
+            this.entity = entity;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+    private static final class SharedCacheHolder {
+
+        private static final EntityCache INSTANCE = new EntityCache();
+
+    }
+
+}
@@ -17,6 +17,9 @@ package org.lodgvideon.hpalm.infrastructure;
 
 import org.lodgvideon.hpalm.entity.Entity;
 
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * An interface to query a collection of entities returned by HP ALM. This interface hides the internal data paging of the HP ALM
  * REST API, so clients can treat the collection as one huge set. All navigational issues on the set are performed automatically
@@ -34,4 +37,34 @@ public interface EntityCollection extends Iterable<Entity> {
      */
     public int getTotalCount();
 
+    /**
+     * Returns an iterator over all elements of this collection. Iterators retrieving pages while being consumed must be closed
+     * when the iteration is stopped early.
+     *
+     * @return An iterator over all elements of this collection.
+     */
+    @Override
+    public EntityIterator iterator();
+
+    /**
+     * Returns a sequential stream over all elements of this collection. Further pages are retrieved lazily while the stream is
+     * consumed.
+     *
+     * @return A sequential stream over all elements of this collection.
+     */
+    public default Stream<Entity> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream over all elements of this collection. The stream is split on page boundaries, and each split
+     * retrieves its pages on its own, so pages are retrieved concurrently by the threads processing the stream. The stream is
+     * ordered and sized using the total count reported by HP ALM.
+     *
+     * @return A parallel stream over all elements of this collection.
+     */
+    public default Stream<Entity> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
 }
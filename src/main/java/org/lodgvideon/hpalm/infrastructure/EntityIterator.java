@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.lodgvideon.hpalm.entity.Entity;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Iterator over the entities of an {@link EntityCollection}. Iterators holding resources, e.g. an open HTTP response or pages
+ * requested in the background, release them as soon as the iteration completes or fails. Clients stopping early should call
+ * {@link #close()}, e.g. using a <code>try</code>-with-resources statement.
+ */
+public interface EntityIterator extends Iterator<Entity>, Closeable {
+
+    /**
+     * Releases all resources held by this iterator. The iterator must not be used afterwards. Closing an iterator more than
+     * once has no effect.
+     */
+    @Override
+    public void close();
+
+}
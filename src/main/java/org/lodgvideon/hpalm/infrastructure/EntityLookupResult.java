@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.lodgvideon.hpalm.entity.Entity;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Result of a lookup of several entities by ID, see {@link HpAlmSession#getEntities(String, java.util.Collection)}. Contains
+ * the entities found, keyed by ID, and the IDs for which no entity exists.
+ */
+public class EntityLookupResult {
+
+    private final Map<Long, Entity> entities;
+
+    private final Set<Long> missingIds;
+
+    EntityLookupResult(Map<Long, Entity> entities, Set<Long> missingIds) {
+        this.entities = Collections.unmodifiableMap(new LinkedHashMap<Long, Entity>(entities));
+        this.missingIds = Collections.unmodifiableSet(new LinkedHashSet<Long>(missingIds));
+    }
+
+    /**
+     * @return the entities found, keyed by ID, in the order of the requested IDs
+     */
+    public Map<Long, Entity> getEntities() {
+        return entities;
+    }
+
+    /**
+     * @param id ID of the entity
+     * @return the entity with the given ID, or <code>null</code> if it has not been found or not been requested
+     */
+    public Entity getEntity(long id) {
+        return entities.get(Long.valueOf(id));
+    }
+
+    /**
+     * @return the requested IDs for which no entity exists, in the order of the requested IDs
+     */
+    public Set<Long> getMissingIds() {
+        return missingIds;
+    }
+
+    /**
+     * @return <code>true</code> if entities have been found for all requested IDs
+     */
+    public boolean isComplete() {
+        return missingIds.isEmpty();
+    }
+
+}
@@ -15,21 +15,125 @@
  */
 package org.lodgvideon.hpalm.infrastructure;
 
+import org.lodgvideon.hpalm.entity.Entity;
+import org.lodgvideon.hpalm.entity.EntityResultSet;
+
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import java.io.ByteArrayInputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * A utility class for converting between jaxb annotated objects and xml.
+ * A utility class for converting between jaxb annotated objects and xml. <br>
+ * JAXB contexts are expensive to create, but thread-safe. They are therefore created once per class and kept in a process-wide
+ * registry. Marshallers and Unmarshallers are cheap, but not thread-safe, so every thread keeps its own instances per class.
  */
 public class EntityMarshallingUtils {
 
+    private static final ConcurrentMap<Class<?>, JAXBContext> CONTEXTS = new ConcurrentHashMap<Class<?>, JAXBContext>();
+
+    private static final ThreadLocal<Map<Class<?>, Unmarshaller>> UNMARSHALLERS = new ThreadLocal<Map<Class<?>, Unmarshaller>>() {
+        @Override
+        protected Map<Class<?>, Unmarshaller> initialValue() {
+            return new HashMap<Class<?>, Unmarshaller>();
+        }
+    };
+
+    private static final ThreadLocal<Map<Class<?>, Marshaller>> MARSHALLERS = new ThreadLocal<Map<Class<?>, Marshaller>>() {
+        @Override
+        protected Map<Class<?>, Marshaller> initialValue() {
+            return new HashMap<Class<?>, Marshaller>();
+        }
+    };
+
     private EntityMarshallingUtils() {
     }
 
+    /**
+     * Creates the JAXB contexts for the classes used by {@link HpAlmSession}, so the first requests do not have to pay for
+     * context construction. Calling this method is optional.
+     *
+     * @throws JAXBException If any of the contexts could not be created.
+     */
+    public static void warmUp() throws JAXBException {
+        warmUp(Entity.class, EntityResultSet.class, QCRestException.class, ServerTime.class);
+    }
+
+    /**
+     * Creates the JAXB contexts for the given classes, if not already present in the registry.
+     *
+     * @param classes Classes to create the JAXB contexts for.
+     * @throws JAXBException If any of the contexts could not be created.
+     */
+    public static void warmUp(Class<?>... classes) throws JAXBException {
+        for (Class<?> c : classes) {
+            getContext(c);
+        }
+    }
+
+    /**
+     * Returns the shared JAXB context for the given class. The context is created on first access.
+     *
+     * @param c Class to return the JAXB context for.
+     * @return The shared JAXB context for the class, never <code>null</code>.
+     * @throws JAXBException If the context could not be created.
+     */
+    public static JAXBContext getContext(Class<?> c) throws JAXBException {
+        JAXBContext ctx = CONTEXTS.get(c);
+        if (ctx == null) {
+            // concurrent creation is harmless; only one instance wins
+            JAXBContext newCtx = JAXBContext.newInstance(c);
+            ctx = CONTEXTS.putIfAbsent(c, newCtx);
+            if (ctx == null) {
+                ctx = newCtx;
+            }
+        }
+        return ctx;
+    }
+
+    /**
+     * Returns the Unmarshaller for the given class which is bound to the current thread. The returned instance must not be
+     * passed to other threads.
+     *
+     * @param c Class to return the Unmarshaller for.
+     * @return The Unmarshaller of the current thread for the class.
+     * @throws JAXBException If the Unmarshaller could not be created.
+     */
+    static Unmarshaller getUnmarshaller(Class<?> c) throws JAXBException {
+        Map<Class<?>, Unmarshaller> unmarshallers = UNMARSHALLERS.get();
+        Unmarshaller unmarshaller = unmarshallers.get(c);
+        if (unmarshaller == null) {
+            unmarshaller = getContext(c).createUnmarshaller();
+            unmarshallers.put(c, unmarshaller);
+        }
+        return unmarshaller;
+    }
+
+    /**
+     * Returns the Marshaller for the given class which is bound to the current thread. The returned instance must not be passed
+     * to other threads.
+     *
+     * @param c Class to return the Marshaller for.
+     * @return The Marshaller of the current thread for the class.
+     * @throws JAXBException If the Marshaller could not be created.
+     */
+    static Marshaller getMarshaller(Class<?> c) throws JAXBException {
+        Map<Class<?>, Marshaller> marshallers = MARSHALLERS.get();
+        Marshaller marshaller = marshallers.get(c);
+        if (marshaller == null) {
+            marshaller = getContext(c).createMarshaller();
+            marshallers.put(c, marshaller);
+        }
+        return marshaller;
+    }
+
     /**
      * @param <T> the type we want to convert our xml into
      * @param c   the class of the parameterized type
@@ -44,14 +148,28 @@ public class EntityMarshallingUtils {
         if (c == xml.getClass()) {
             res = (T) xml;
         } else {
-            JAXBContext ctx = JAXBContext.newInstance(c);
-            Unmarshaller marshaller = ctx.createUnmarshaller();
+            Unmarshaller marshaller = getUnmarshaller(c);
             res = (T) marshaller.unmarshal(new StringReader(xml));
         }
 
         return res;
     }
 
+    /**
+     * Deserializes XML directly from its encoded bytes, without decoding it into a String first. The encoding is taken from
+     * the XML declaration, and defaults to UTF-8.
+     *
+     * @param <T> the type we want to convert our xml into
+     * @param c   the class of the parameterized type
+     * @param xml the encoded instance xml description
+     * @return a deserialization of the xml into an object of type T of class Class<T>
+     * @throws JAXBException
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T marshal(Class<T> c, byte[] xml) throws JAXBException {
+        return (T) getUnmarshaller(c).unmarshal(new ByteArrayInputStream(xml));
+    }
+
     /**
      * @param <T> the type to serialize
      * @param c   the class of the type to serialize
@@ -61,8 +179,7 @@ public class EntityMarshallingUtils {
      */
     public static <T> String unmarshal(Class<T> c, Object o) throws JAXBException {
 
-        JAXBContext ctx = JAXBContext.newInstance(c);
-        Marshaller marshaller = ctx.createMarshaller();
+        Marshaller marshaller = getMarshaller(c);
         StringWriter entityXml = new StringWriter();
         marshaller.marshal(o, entityXml);
 
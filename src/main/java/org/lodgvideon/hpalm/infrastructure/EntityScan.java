@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.lodgvideon.hpalm.entity.Entity;
+import org.lodgvideon.hpalm.entity.EntityResultSet;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Iterator over a scan started or resumed at a {@link ScanCursor}, see {@link HpAlmSession#scan(ScanCursor)}. After each
+ * entity returned, {@link #getCursor()} returns the position to resume the scan at. Pages are retrieved sequentially while
+ * iterating. <br>
+ * Instances are not thread-safe.
+ */
+public class EntityScan implements Iterator<Entity> {
+
+    private final HpAlmSession session;
+
+    private final QueryOptions options;
+
+    private ScanCursor cursor;
+
+    private List<Entity> currentPage;
+
+    private int listIndex;
+
+    // true if the current page contains all remaining entities
+    private boolean lastPage;
+
+    EntityScan(HpAlmSession session, ScanCursor cursor) {
+        this.session = session;
+        this.cursor = cursor;
+        this.options = cursor.toQueryOptions();
+    }
+
+    /**
+     * @return the position after the entity returned last, or the start position if no entity has been returned yet
+     */
+    public ScanCursor getCursor() {
+        return cursor;
+    }
+
+    private void queryPage() {
+        EntityResultSet resultSet;
+        try {
+            int pageSize = session.getPageSize(options);
+            String url;
+            if (cursor.isKeyset()) {
+                url = session.buildKeysetPageUrl(cursor.getEntityName(), cursor.getQuery(), options, cursor.getLastId(),
+                        pageSize);
+            } else {
+                url = session.buildOffsetPageUrl(cursor.getEntityName(), cursor.getQuery(), options, cursor.getOffset() + 1,
+                        pageSize);
+            }
+            resultSet = session.doGet(url);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not retrieve next bunch of entities", e);
+        }
+
+        currentPage = resultSet.getEntities() == null ? Collections.<Entity>emptyList() : resultSet.getEntities();
+        listIndex = 0;
+        // total results of a keyset page is the count of remaining entities
+        long remaining = cursor.isKeyset() ? resultSet.getTotalResults() : resultSet.getTotalResults() - cursor.getOffset();
+        lastPage = currentPage.isEmpty() || remaining <= currentPage.size();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if ((currentPage == null || listIndex == currentPage.size()) && !lastPage) {
+            queryPage();
+        }
+        return listIndex < currentPage.size();
+    }
+
+    @Override
+    public Entity next() {
+        if (!hasNext()) {
+            throw new IllegalStateException("No more elements available");
+        }
+        Entity entity = currentPage.get(listIndex++);
+        cursor = cursor.advance(entity);
+        return entity;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+}
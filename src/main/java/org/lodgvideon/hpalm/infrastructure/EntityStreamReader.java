@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.apache.commons.io.IOUtils;
+import org.lodgvideon.hpalm.entity.Entity;
+import org.lodgvideon.hpalm.entity.Field;
+import org.lodgvideon.hpalm.entity.Fields;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pull parser for an HP ALM <code>&lt;Entities&gt;</code> document. The entities are parsed directly from the given stream, one
+ * at a time, so only the entity currently being returned is held in memory. <br>
+ * The reader closes the underlying stream as soon as the end of the document has been reached. Clients which stop reading
+ * early must call {@link #close()}, which discards the rest of the stream before closing it, so a persistent connection can
+ * be reused. If more than {@value #MAX_DRAIN_BYTES} bytes are left, the stream is closed without reading them, which lets
+ * the transport discard the connection instead of downloading the rest of a large result.
+ */
+public final class EntityStreamReader implements Closeable {
+
+    private static final ThreadLocal<XMLInputFactory> FACTORIES = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            return factory;
+        }
+    };
+
+    private static final long MAX_DRAIN_BYTES = 64 * 1024;
+
+    private InputStream in;
+
+    private XMLStreamReader reader;
+
+    private int totalResults;
+
+    private int readCount;
+
+    private boolean atEntity;
+
+    /**
+     * Creates a new reader for the given stream and reads up to the root element.
+     *
+     * @param in Stream containing an <code>&lt;Entities&gt;</code> XML document.
+     * @throws IOException If the stream could not be read or does not contain an <code>&lt;Entities&gt;</code> document.
+     */
+    public EntityStreamReader(InputStream in) throws IOException {
+        this.in = in;
+        try {
+            reader = FACTORIES.get().createXMLStreamReader(in);
+            if (!nextStartElement() || !"Entities".equals(reader.getLocalName())) {
+                throw new IOException("Invalid XML format returned by HP ALM: Entities element expected");
+            }
+            String total = reader.getAttributeValue(null, "TotalResults");
+            totalResults = total == null ? 0 : Integer.parseInt(total.trim());
+        } catch (XMLStreamException e) {
+            close();
+            throw new IOException("Invalid XML format returned by HP ALM", e);
+        } catch (NumberFormatException e) {
+            close();
+            throw new IOException("Invalid TotalResults value returned by HP ALM", e);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The total count of entities matching the query, as reported by HP ALM on the root element.
+     */
+    public int getTotalResults() {
+        return totalResults;
+    }
+
+    /**
+     * @return The count of entities returned by this reader so far.
+     */
+    public int getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * Checks if there is another entity in the document.
+     *
+     * @return <code>true</code> if another entity can be read, <code>false</code> otherwise.
+     * @throws IOException If the document could not be read.
+     */
+    public boolean hasNext() throws IOException {
+        if (atEntity) {
+            return true;
+        }
+        if (reader == null) {
+            return false;
+        }
+
+        try {
+            // only direct children of <Entities> are of interest
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if ("Entity".equals(reader.getLocalName())) {
+                        atEntity = true;
+                        return true;
+                    }
+                    skipElement();
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            close();
+            throw new IOException("Invalid XML format returned by HP ALM", e);
+        }
+
+        close();
+        return false;
+    }
+
+    /**
+     * Reads the next entity from the document.
+     *
+     * @return The next entity, never <code>null</code>.
+     * @throws IOException           If the document could not be read.
+     * @throws IllegalStateException If there are no more entities in the document.
+     */
+    public Entity next() throws IOException {
+        if (!hasNext()) {
+            throw new IllegalStateException("No more elements available");
+        }
+        atEntity = false;
+
+        try {
+            Entity entity = readEntity();
+            readCount++;
+            return entity;
+        } catch (XMLStreamException e) {
+            close();
+            throw new IOException("Invalid XML format returned by HP ALM", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        atEntity = false;
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) { // NOPMD
+                // ignore; stream is closed below
+            }
+            reader = null;
+        }
+        if (in != null) {
+            try {
+                IOUtils.skip(in, MAX_DRAIN_BYTES);
+            } catch (IOException e) { // NOPMD
+                // ignore; connection cannot be reused then
+            }
+            IOUtils.closeQuietly(in);
+            in = null;
+        }
+    }
+
+    private Entity readEntity() throws XMLStreamException {
+        Entity entity = new Entity();
+        entity.setType(reader.getAttributeValue(null, "Type"));
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if ("Fields".equals(reader.getLocalName())) {
+                entity.setFields(readFields());
+            } else {
+                skipElement();
+            }
+        }
+
+        return entity;
+    }
+
+    private Fields readFields() throws XMLStreamException {
+        Fields fields = new Fields();
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if ("Field".equals(reader.getLocalName())) {
+                Field field = new Field();
+                field.setName(reader.getAttributeValue(null, "Name"));
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    if ("Value".equals(reader.getLocalName())) {
+                        field.getValue().add(reader.getElementText());
+                    } else {
+                        skipElement();
+                    }
+                }
+                fields.getFieldList().add(field);
+            } else {
+                skipElement();
+            }
+        }
+
+        return fields;
+    }
+
+    private boolean nextStartElement() throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+}
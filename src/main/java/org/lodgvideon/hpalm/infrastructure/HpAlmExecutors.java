@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for the executors used to run HP ALM requests in the background.
+ */
+public final class HpAlmExecutors {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HpAlmExecutors.class);
+
+    private HpAlmExecutors() {
+    }
+
+    /**
+     * Creates a new executor suitable for running many blocking HP ALM requests concurrently. If the JVM supports virtual
+     * threads, an executor starting one virtual thread per task is returned. Otherwise, a cached thread pool with daemon
+     * threads is returned.
+     *
+     * @param threadNamePrefix Prefix for the names of the created platform threads.
+     * @return A new executor. The caller is responsible for shutting it down.
+     */
+    public static ExecutorService newBlockingIoExecutor(String threadNamePrefix) {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (NoSuchMethodException e) {
+            // JVM without virtual threads
+        } catch (Exception e) {
+            LOG.debug("Could not create virtual thread executor, falling back to platform threads", e);
+        }
+
+        return Executors.newCachedThreadPool(newDaemonThreadFactory(threadNamePrefix));
+    }
+
+    /**
+     * Creates a thread factory for daemon threads with the given name prefix.
+     *
+     * @param threadNamePrefix Prefix for the names of the created threads.
+     * @return A new thread factory.
+     */
+    public static ThreadFactory newDaemonThreadFactory(final String threadNamePrefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, threadNamePrefix + "-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+}
@@ -26,21 +26,50 @@ import org.slf4j.LoggerFactory;
 
 import javax.xml.bind.JAXBException;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class HpAlmSession {
 
     private static final Logger LOG = LoggerFactory.getLogger(HpAlmSession.class);
+
+    /**
+     * Default maximum length of query URLs built by {@link #getEntities(String, Collection)}. Stays well below the request
+     * line limits of common web servers and proxies.
+     */
+    public static final int DEFAULT_MAX_URL_LENGTH = 4000;
+
+    /**
+     * Default count of concurrent requests of {@link #getEntities(String, Collection)}.
+     */
+    public static final int DEFAULT_LOOKUP_PARALLELISM = 4;
     private static final String LWSSO_COOKIE_KEY = "LWSSO_COOKIE_KEY";
     private static final String QCESSION_COOKIE_KEY = "QCSession";
     private static final Map<String, String> JSON_ACCEPT_HEADER = new HashMap<String, String>();
     private static final Map<String, String> XML_ACCEPT_HEADER = new HashMap<String, String>();
     private static final Map<String, String> XML_POST_HEADERS = new HashMap<String, String>();
     private static final Map<String, String> FILE_POST_HEADERS = new HashMap<String, String>();
+    private static final Map<String, String> FILE_ACCEPT_HEADER = new HashMap<String, String>();
+    private static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_SESSION_TIMEOUT_MINUTES = 5;
     private static final Pattern PATTERN_LWSSO_REALM = Pattern.compile("LWSSO realm=\"(http(s?)://[^\"]+)\"");
 
     static {
@@ -52,18 +81,111 @@ public class HpAlmSession {
 
         FILE_POST_HEADERS.putAll(XML_ACCEPT_HEADER);
         FILE_POST_HEADERS.put("Content-Type", "application/octet-stream");
+
+        FILE_ACCEPT_HEADER.put("Accept", "application/octet-stream");
     }
 
-    private RestConnector connector;
+    private final RestConnector connector;
+
+    private final String userName;
+
+    private final String password;
+
+    private final int sessionTimeoutMinutes;
+
+    private final Object loginLock = new Object();
+
+    private final AtomicInteger reauthenticationCount = new AtomicInteger();
+
+    private ScheduledFuture<?> keepAliveTask;
+
+    private volatile boolean requestCoalescingEnabled;
+
+    private volatile int defaultPageSize;
+
+    private volatile int maxUrlLength = DEFAULT_MAX_URL_LENGTH;
+
+    private volatile EntityCache entityCache;
+
+    private final SingleFlight<String, EntityResultSet> resultSetFlights = new SingleFlight<String, EntityResultSet>(
+            new SingleFlight.Copier<EntityResultSet>() {
+                @Override
+                public EntityResultSet copy(EntityResultSet value) {
+                    return copyResultSet(value);
+                }
+            });
+
+    private final SingleFlight<String, Entity> entityFlights = new SingleFlight<String, Entity>(
+            new SingleFlight.Copier<Entity>() {
+                @Override
+                public Entity copy(Entity value) {
+                    return new Entity(value);
+                }
+            });
 
-    private HpAlmSession(RestConnector connector) {
+    private HpAlmSession(RestConnector connector, String userName, String password, int sessionTimeoutMinutes) {
         this.connector = connector;
+        this.userName = userName;
+        this.password = password;
+        this.sessionTimeoutMinutes = sessionTimeoutMinutes;
     }
 
     public static HpAlmSession create(String serverUrl, String domain, String project, String userName, String password)
             throws IOException, HpAlmException {
-        RestConnector connector = new RestConnector(new HashMap<String, String>(), serverUrl, domain, project);
+        return create(new RestConnector(new ConcurrentHashMap<String, String>(), serverUrl, domain, project), userName,
+                password);
+    }
+
+    /**
+     * Logs in to HP ALM using the given connector, and starts a new session. Use this method to pass a connector with a
+     * non-default configuration, e.g. with a {@link PooledHttpTransport}.
+     *
+     * @param connector Connector to use for all requests of the session.
+     * @param userName  Name of the HP ALM user.
+     * @param password  Password of the HP ALM user.
+     * @return The new session.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If the authentication fails, or HP ALM reports any other error.
+     */
+    public static HpAlmSession create(RestConnector connector, String userName, String password)
+            throws IOException, HpAlmException {
+        return create(connector, userName, password, DEFAULT_SESSION_TIMEOUT_MINUTES);
+    }
+
+    /**
+     * Logs in to HP ALM using the given connector, and starts a new session with the given timeout. If the server rejects a
+     * request of the session later on, e.g. because the session has expired, the session logs in again using the same
+     * credentials, and the rejected request is retried once. Use {@link #startKeepAlive()} to prevent the session from
+     * expiring while idle.
+     *
+     * @param connector             Connector to use for all requests of the session.
+     * @param userName              Name of the HP ALM user.
+     * @param password              Password of the HP ALM user.
+     * @param sessionTimeoutMinutes Idle timeout of the HP ALM session, in minutes.
+     * @return The new session.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If the authentication fails, or HP ALM reports any other error.
+     */
+    public static HpAlmSession create(RestConnector connector, String userName, String password, int sessionTimeoutMinutes)
+            throws IOException, HpAlmException {
+        if (sessionTimeoutMinutes < 1) {
+            throw new IllegalArgumentException("Session timeout must be at least one minute");
+        }
+
+        login(connector, userName, password, sessionTimeoutMinutes);
 
+        final HpAlmSession session = new HpAlmSession(connector, userName, password, sessionTimeoutMinutes);
+        connector.setReauthenticationHandler(new ReauthenticationHandler() {
+            @Override
+            public boolean reauthenticate(RestConnector connector, String rejectedCookies) throws IOException {
+                return session.reauthenticate(rejectedCookies);
+            }
+        });
+        return session;
+    }
+
+    private static void login(RestConnector connector, String userName, String password, int sessionTimeoutMinutes)
+            throws IOException, HpAlmException {
         // query is-authenticated
         Response response = connector.httpGet(connector.buildUrl("rest/is-authenticated"), null, XML_ACCEPT_HEADER);
 
@@ -107,14 +229,14 @@ public class HpAlmSession {
             throw new HpAlmException("Login response did not contain required session cookie");
         }
 
-        connector.getCookies().put(LWSSO_COOKIE_KEY, cookie);
+        connector.setCookie(LWSSO_COOKIE_KEY, cookie);
 
         // request a session with a custom limited timeout
         sw = new StringWriter();
         writer = new PrettyPrintXMLWriter(sw);
         writer.startElement("session-parameters");
         writer.startElement("time-out");
-        writer.writeText("5");
+        writer.writeText(Integer.toString(sessionTimeoutMinutes));
         writer.endElement();
         writer.endElement();
 
@@ -128,9 +250,29 @@ public class HpAlmSession {
             throw new HpAlmException("Server did not send a session cookie");
         }
 
-        connector.getCookies().put(QCESSION_COOKIE_KEY, cookie);
+        connector.setCookie(QCESSION_COOKIE_KEY, cookie);
+    }
+
+    private boolean reauthenticate(String rejectedCookies) throws IOException {
+        synchronized (loginLock) {
+            if (!rejectedCookies.equals(connector.getCookieString())) {
+                // another thread has already logged in again
+                return true;
+            }
+
+            // start from scratch, as the server would not ask for authentication otherwise
+            connector.setCookies(null);
+            try {
+                login(connector, userName, password, sessionTimeoutMinutes);
+            } catch (HpAlmException e) {
+                LOG.warn("Could not authenticate again at HP ALM", e);
+                return false;
+            }
 
-        return new HpAlmSession(connector);
+            reauthenticationCount.incrementAndGet();
+            LOG.info("HP ALM session of user " + userName + " has been renewed");
+            return true;
+        }
     }
 
     private static String getSingleHeaderValue(Response response, String header) {
@@ -175,11 +317,111 @@ public class HpAlmSession {
         return new URLEncoder().encode(query);
     }
 
+    /**
+     * @return the connector used for all requests of this session
+     */
+    RestConnector getConnector() {
+        return connector;
+    }
+
+    /**
+     * @return the idle timeout of the HP ALM session, in minutes
+     */
+    public int getSessionTimeoutMinutes() {
+        return sessionTimeoutMinutes;
+    }
+
+    /**
+     * @return the number of times this session has logged in again after the server rejected a request
+     */
+    public int getReauthenticationCount() {
+        return reauthenticationCount.get();
+    }
+
+    /**
+     * @return <code>true</code> if identical concurrent GET requests share one network call, <code>false</code> otherwise
+     */
+    public boolean isRequestCoalescingEnabled() {
+        return requestCoalescingEnabled;
+    }
+
+    /**
+     * Enables or disables coalescing of identical GET requests. If enabled, threads requesting the same entity or query
+     * result (same URL and Accept header) while an identical request is in flight wait for that request instead of sending
+     * their own, and receive a copy of its result. Note that a thread may then receive a result which has been requested
+     * before its own latest modification of the same data was sent. Disabled by default.
+     *
+     * @param requestCoalescingEnabled <code>true</code> to coalesce identical concurrent GET requests
+     */
+    public void setRequestCoalescingEnabled(boolean requestCoalescingEnabled) {
+        this.requestCoalescingEnabled = requestCoalescingEnabled;
+    }
+
+    /**
+     * @return the count of GET requests which have been served by an identical concurrent request
+     */
+    public long getCoalescedRequestCount() {
+        return resultSetFlights.getCoalescedCount() + entityFlights.getCoalescedCount();
+    }
+
     public void extendTimeout() throws IOException {
         connector.httpGet(connector.buildUrl("rest/site-session"), null, XML_ACCEPT_HEADER);
     }
 
+    /**
+     * Starts extending the HP ALM session in the background, at half of the session timeout. If the session has expired
+     * nevertheless, e.g. because of a server restart, the session logs in again. The keep-alive is stopped by
+     * {@link #logout()}.
+     */
+    public void startKeepAlive() {
+        startKeepAlive(sessionTimeoutMinutes * 60000L / 2);
+    }
+
+    /**
+     * Starts extending the HP ALM session in the background, at the given interval. Any previously started keep-alive is
+     * replaced.
+     *
+     * @param intervalMillis Interval between two session extensions, in milliseconds. Should be less than the session
+     *                       timeout.
+     */
+    public synchronized void startKeepAlive(long intervalMillis) {
+        stopKeepAlive();
+        keepAliveTask = KeepAliveExecutorHolder.INSTANCE.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                keepAlive();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops extending the HP ALM session in the background.
+     */
+    public synchronized void stopKeepAlive() {
+        if (keepAliveTask != null) {
+            keepAliveTask.cancel(false);
+            keepAliveTask = null;
+        }
+    }
+
+    private void keepAlive() {
+        try {
+            String cookies = connector.getCookieString();
+            Response response = connector.httpGet(connector.buildUrl("rest/site-session"), null, XML_ACCEPT_HEADER);
+            if (response.getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+                reauthenticate(cookies);
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not extend HP ALM session", e);
+        } catch (RuntimeException e) {
+            // do not let the scheduler cancel the task
+            LOG.error("Unexpected error while extending HP ALM session", e);
+        }
+    }
+
     public void logout() throws IOException {
+        stopKeepAlive();
+        connector.setReauthenticationHandler(null);
         connector.httpGet(connector.buildUrl("authentication-point/logout"), null, XML_ACCEPT_HEADER);
     }
 
@@ -270,14 +512,21 @@ public class HpAlmSession {
             return EntityMarshallingUtils.marshal(Entity.class, xml);
         } catch (JAXBException e) {
             throw new IOException("Could not unmarshal Entity", e);
+        } finally {
+            // also if the update failed, as it may have been applied partially
+            invalidateCachedEntity(updateValues.getType(), id);
         }
     }
 
     public void deleteEntity(String entityType, long id) throws IOException, HpAlmException {
-        Response response = connector.httpDelete(connector.buildEntityCollectionUrl(entityType) + "/" + id,
-                XML_ACCEPT_HEADER);
-        if (response.getStatusCode() != HttpStatus.SC_OK) {
-            raiseHpAlmException(response);
+        try {
+            Response response = connector.httpDelete(connector.buildEntityCollectionUrl(entityType) + "/" + id,
+                    XML_ACCEPT_HEADER);
+            if (response.getStatusCode() != HttpStatus.SC_OK) {
+                raiseHpAlmException(response);
+            }
+        } finally {
+            invalidateCachedEntity(entityType, id);
         }
     }
 
@@ -285,19 +534,72 @@ public class HpAlmSession {
         deleteEntity(entity.getType(), entity.getId());
     }
 
+    /**
+     * Creates an attachment for the given entity. The data is streamed to HP ALM using chunked transfer encoding, so it is
+     * never held in memory completely. The stream is not closed.
+     *
+     * @param entity         Entity to attach the data to.
+     * @param fileName       File name of the attachment.
+     * @param attachmentData Data of the attachment.
+     * @return The created attachment entity.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
     public Entity createAttachment(Entity entity, String fileName, InputStream attachmentData) throws IOException, HpAlmException {
-        Map<String, String> headerMap = new LinkedHashMap<String, String>(FILE_POST_HEADERS);
-        headerMap.put("Slug", fileName);
+        return createAttachment(entity, fileName, RequestBody.create(attachmentData, -1));
+    }
 
-        // cache data
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        IOUtils.copy(attachmentData, baos);
-        byte[] data = baos.toByteArray();
+    /**
+     * Creates an attachment for the given entity, streaming exactly <code>length</code> bytes from the given stream to HP ALM.
+     * The stream is not closed.
+     *
+     * @param entity         Entity to attach the data to.
+     * @param fileName       File name of the attachment.
+     * @param attachmentData Data of the attachment.
+     * @param length         Count of bytes to send.
+     * @return The created attachment entity.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public Entity createAttachment(Entity entity, String fileName, InputStream attachmentData, long length)
+            throws IOException, HpAlmException {
+        return createAttachment(entity, fileName, RequestBody.create(attachmentData, length));
+    }
 
-        String url = connector.buildEntityCollectionUrl(entity.getType());
-        url += "/" + entity.getId() + "/attachments";
+    /**
+     * Creates an attachment for the given entity, streaming the contents of the given file to HP ALM.
+     *
+     * @param entity   Entity to attach the file to.
+     * @param fileName File name of the attachment.
+     * @param file     File to attach.
+     * @return The created attachment entity.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public Entity createAttachment(Entity entity, String fileName, File file) throws IOException, HpAlmException {
+        return createAttachment(entity, fileName, RequestBody.create(file));
+    }
 
-        Response response = connector.httpPost(url, data, headerMap);
+    /**
+     * Creates an attachment for the given entity, streaming the given channel from its current position up to its end to HP
+     * ALM. The channel is not closed.
+     *
+     * @param entity   Entity to attach the data to.
+     * @param fileName File name of the attachment.
+     * @param channel  Channel to read the attachment data from.
+     * @return The created attachment entity.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public Entity createAttachment(Entity entity, String fileName, FileChannel channel) throws IOException, HpAlmException {
+        return createAttachment(entity, fileName, RequestBody.create(channel));
+    }
+
+    private Entity createAttachment(Entity entity, String fileName, RequestBody body) throws IOException, HpAlmException {
+        Map<String, String> headerMap = new LinkedHashMap<String, String>(FILE_POST_HEADERS);
+        headerMap.put("Slug", fileName);
+
+        Response response = connector.httpPost(buildAttachmentsUrl(entity), body, headerMap);
 
         if (response.getStatusCode() != HttpStatus.SC_CREATED) {
             raiseHpAlmException(response);
@@ -311,76 +613,466 @@ public class HpAlmSession {
         }
     }
 
+    /**
+     * Returns the attachments of the given entity. The returned entities are of type <code>attachment</code> and contain the
+     * attachment meta data, e.g. <code>name</code> and <code>file-size</code>, but not the attachment contents.
+     *
+     * @param entity Entity to list the attachments of.
+     * @return The attachments of the entity.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public EntityCollection getAttachments(Entity entity) throws IOException, HpAlmException {
+        String url = buildAttachmentsUrl(entity);
+        return new PagedEntityCollectionImpl(this, url, doGet(url));
+    }
+
+    /**
+     * Streams the contents of an attachment into the given stream. The contents are never held in memory completely. The
+     * stream is not closed.
+     *
+     * @param entity         Entity owning the attachment.
+     * @param attachmentName Name of the attachment.
+     * @param out            Stream to write the attachment contents to.
+     * @return The count of bytes written.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error, e.g. if there is no such attachment.
+     */
+    public long downloadAttachment(Entity entity, String attachmentName, OutputStream out) throws IOException, HpAlmException {
+        InputStream in = openAttachmentStream(entity, attachmentName);
+        try {
+            byte[] buf = new byte[DOWNLOAD_BUFFER_SIZE];
+            long count = 0;
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+                count += read;
+            }
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Streams the contents of an attachment into the given channel, starting at its current position. The channel is not
+     * closed.
+     *
+     * @param entity         Entity owning the attachment.
+     * @param attachmentName Name of the attachment.
+     * @param channel        Channel to write the attachment contents to.
+     * @return The count of bytes written.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error, e.g. if there is no such attachment.
+     */
+    public long downloadAttachment(Entity entity, String attachmentName, FileChannel channel) throws IOException,
+            HpAlmException {
+        ReadableByteChannel in = Channels.newChannel(openAttachmentStream(entity, attachmentName));
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(DOWNLOAD_BUFFER_SIZE);
+            long count = 0;
+            while (in.read(buf) != -1) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    count += channel.write(buf);
+                }
+                buf.clear();
+            }
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Streams the contents of an attachment into the given file. An existing file is overwritten.
+     *
+     * @param entity         Entity owning the attachment.
+     * @param attachmentName Name of the attachment.
+     * @param target         File to write the attachment contents to.
+     * @return The count of bytes written.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error, e.g. if there is no such attachment.
+     */
+    public long downloadAttachment(Entity entity, String attachmentName, Path target) throws IOException, HpAlmException {
+        FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return downloadAttachment(entity, attachmentName, channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private InputStream openAttachmentStream(Entity entity, String attachmentName) throws IOException, HpAlmException {
+        String url = buildAttachmentsUrl(entity) + "/" + new URLEncoder().encode(attachmentName);
+        Response response = connector.httpGetStream(url, null, FILE_ACCEPT_HEADER);
+        if (response.getStatusCode() != HttpStatus.SC_OK) {
+            IOUtils.closeQuietly(response.getResponseStream());
+            raiseHpAlmException(response);
+        }
+        return response.getResponseStream() == null ? new ByteArrayInputStream(new byte[0]) : response.getResponseStream();
+    }
+
+    private String buildAttachmentsUrl(Entity entity) {
+        return connector.buildEntityCollectionUrl(entity.getType()) + "/" + HpAlmUtil.formatId(entity.getId())
+                + "/attachments";
+    }
+
     public EntityCollection getTestRuns() throws IOException, HpAlmException {
         return getEntityCollection("run", "test runs");
     }
 
+    public EntityCollection getTestRuns(String... fields) throws IOException, HpAlmException {
+        return getEntityCollection("run", "test runs", fields);
+    }
+
     public EntityCollection getTests() throws IOException, HpAlmException {
         return getEntityCollection("test", "tests");
     }
 
+    public EntityCollection getTests(String... fields) throws IOException, HpAlmException {
+        return getEntityCollection("test", "tests", fields);
+    }
+
     public EntityCollection getTestSets() throws IOException, HpAlmException {
         return getEntityCollection("test-set", "test sets");
     }
 
+    public EntityCollection getTestSets(String... fields) throws IOException, HpAlmException {
+        return getEntityCollection("test-set", "test sets", fields);
+    }
+
     public EntityCollection getTestFolders() throws IOException, HpAlmException {
         return getEntityCollection("test-folder", "test folders");
     }
 
+    public EntityCollection getTestFolders(String... fields) throws IOException, HpAlmException {
+        return getEntityCollection("test-folder", "test folders", fields);
+    }
+
     public EntityCollection getTestSetFolders() throws IOException, HpAlmException {
         return getEntityCollection("test-set-folder", "test set folders");
     }
 
+    public EntityCollection getTestSetFolders(String... fields) throws IOException, HpAlmException {
+        return getEntityCollection("test-set-folder", "test set folders", fields);
+    }
+
     public Entity getTest(long id) throws IOException, HpAlmException {
         return getEntity("test", id);
     }
 
+    public Entity getTest(long id, String... fields) throws IOException, HpAlmException {
+        return getEntity("test", id, fields);
+    }
+
     public Entity getTestSet(long id) throws IOException, HpAlmException {
         return getEntity("test-set", id);
     }
 
+    public Entity getTestSet(long id, String... fields) throws IOException, HpAlmException {
+        return getEntity("test-set", id, fields);
+    }
+
     public Entity getTestFolder(long id) throws IOException, HpAlmException {
         return getEntity("test-folder", id);
     }
 
+    public Entity getTestFolder(long id, String... fields) throws IOException, HpAlmException {
+        return getEntity("test-folder", id, fields);
+    }
+
     public Entity getTestSetFolder(long id) throws IOException, HpAlmException {
         return getEntity("test-set-folder", id);
     }
 
+    public Entity getTestSetFolder(long id, String... fields) throws IOException, HpAlmException {
+        return getEntity("test-set-folder", id, fields);
+    }
+
     //
     // Private helpers
     //
 
     public EntityCollection queryEntities(String entityName, String query) throws IOException, HpAlmException {
-        if (query != null) {
-            query = encodeQuery(query);
+        return queryEntities(entityName, query, null);
+    }
+
+    /**
+     * Queries entities using the given options, e.g. to prefetch result pages in the background.
+     *
+     * @param entityName Type name of the entities to query, e.g. <code>run</code>.
+     * @param query      HP ALM query expression, or <code>null</code> to query all entities.
+     * @param options    Options for the query, or <code>null</code> for defaults.
+     * @return A collection of the entities matching the query.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public EntityCollection queryEntities(String entityName, String query, QueryOptions options) throws IOException,
+            HpAlmException {
+        if (options != null && options.isKeysetPagination()) {
+            if (options.getOrderBy() != null) {
+                throw new IllegalArgumentException("Keyset pagination requires ordering by ID; order-by must not be set");
+            }
+            AdaptivePageSizer sizer = options.getAdaptivePageSizer();
+            int pageSize = sizer != null ? sizer.getPageSize() : getPageSize(options);
+            EntityResultSet firstResultSet = doGet(buildKeysetPageUrl(entityName, query, options, 0, pageSize), sizer);
+            return new PagedEntityCollectionImpl(this, entityName, query, firstResultSet, options);
         }
 
-        String url = connector.buildEntityCollectionUrl(entityName) + (query != null ? ("?query={" + query + "}") : "");
-        return new PagedEntityCollectionImpl(this, url, doGet(url));
+        String url = buildQueryUrl(entityName, query, options != null ? options.getFields() : null);
+        return queryCollection(appendOrderBy(url, options != null ? options.getOrderBy() : null), options);
+    }
+
+    /**
+     * Starts or resumes a scan over all entities matching a query at the position of the given cursor. Use
+     * {@link EntityScan#getCursor()} to get the position to resume at later, e.g. after the scanning job has failed:
+     *
+     * <pre>
+     * EntityScan scan = session.scan(ScanCursor.start("run", null, new QueryOptions().setKeysetPagination(true)));
+     * while (scan.hasNext()) {
+     *     export(scan.next());
+     *     saveCheckpoint(scan.getCursor().toToken());
+     * }
+     * </pre>
+     *
+     * @param cursor Position to start the scan at.
+     * @return An iterator over the entities following the cursor position.
+     */
+    public EntityScan scan(ScanCursor cursor) {
+        return new EntityScan(this, cursor);
+    }
+
+    /**
+     * Builds the URL for a page of a query using offset pagination. Without explicit ordering, the result is ordered by ID,
+     * so the offsets are stable between requests.
+     *
+     * @param entityName Type name of the entities to query.
+     * @param query      HP ALM query expression, or <code>null</code> to query all entities.
+     * @param options    Options of the query.
+     * @param startIndex 1-based index of the first entity of the page.
+     * @param pageSize   Count of entities to request, or 0 for the server default.
+     * @return The URL of the page.
+     */
+    String buildOffsetPageUrl(String entityName, String query, QueryOptions options, long startIndex, int pageSize) {
+        String url = appendOrderBy(buildQueryUrl(entityName, query, options.getFields()),
+                options.getOrderBy() != null ? options.getOrderBy() : "id[ASC]");
+        url = PagedEntityCollectionImpl.appendParameter(url, "start-index", Long.toString(startIndex));
+        return PagedEntityCollectionImpl.appendPageSize(url, pageSize);
+    }
+
+    /**
+     * Builds the URL for a page of a query using keyset pagination, i.e. ordered by ID and starting after the given ID.
+     *
+     * @param entityName Type name of the entities to query.
+     * @param query      HP ALM query expression, or <code>null</code> to query all entities.
+     * @param options    Options of the query.
+     * @param lastId     Last ID received, or 0 for the first page.
+     * @param pageSize   Count of entities to request, or 0 for the server default.
+     * @return The URL of the page.
+     */
+    String buildKeysetPageUrl(String entityName, String query, QueryOptions options, long lastId, int pageSize) {
+        if (lastId > 0) {
+            query = (query != null ? query + "; " : "") + "id[> " + HpAlmUtil.formatId(lastId) + "]";
+        }
+        String url = appendOrderBy(buildQueryUrl(entityName, query, options.getFields()), "id[ASC]");
+        return PagedEntityCollectionImpl.appendPageSize(url, pageSize);
+    }
+
+    /**
+     * Queries entities like {@link #queryEntities(String, String)}, but parses the result pages directly from the HTTP
+     * connection while iterating. At most one entity of a page is held in memory at a time, which makes this method suitable
+     * for large scans. <br>
+     * Note that each page keeps its HTTP connection open until it has been fully iterated. Iterations stopped early must close
+     * their {@link EntityIterator}, or the stream returned by {@link EntityCollection#stream()}. The first page is held open
+     * until the first iterator is requested.
+     *
+     * @param entityName Type name of the entities to query, e.g. <code>run</code>.
+     * @param query      HP ALM query expression, or <code>null</code> to query all entities.
+     * @return A collection of the entities matching the query.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public EntityCollection streamEntities(String entityName, String query) throws IOException, HpAlmException {
+        String url = buildQueryUrl(entityName, query, null);
+        return new PagedEntityCollectionImpl(this, url,
+                doGetStream(PagedEntityCollectionImpl.appendPageSize(url, defaultPageSize)));
+    }
+
+    /**
+     * Reports all entities of the given type created or modified since the given watermark, using a {@link ChangeFeed} with
+     * default settings.
+     *
+     * @param entityName Type name of the entities, e.g. <code>run</code>.
+     * @param since      Watermark returned by the previous call, or {@link ChangeWatermark#INITIAL} to report all entities.
+     * @param handler    Handler to receive the changed entities.
+     * @return The watermark to pass to the next call.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public ChangeWatermark queryChanges(String entityName, ChangeWatermark since, ChangeHandler handler) throws IOException,
+            HpAlmException {
+        return new ChangeFeed(this, entityName).poll(since, handler);
+    }
+
+    /**
+     * Counts the entities matching the given query. Only a minimal page (one entity, with its ID only) is retrieved.
+     *
+     * @param entityName Type name of the entities to count, e.g. <code>run</code>.
+     * @param query      HP ALM query expression, or <code>null</code> to count all entities.
+     * @return The count of matching entities.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public int countEntities(String entityName, String query) throws IOException, HpAlmException {
+        String url = buildQueryUrl(entityName, query, new String[]{"id"});
+        return doGet(PagedEntityCollectionImpl.appendPageSize(url, 1)).getTotalResults();
+    }
+
+    /**
+     * Checks if any entity matches the given query. Only a minimal page (one entity, with its ID only) is retrieved.
+     *
+     * @param entityName Type name of the entities to check, e.g. <code>test-set</code>.
+     * @param query      HP ALM query expression, or <code>null</code> to check for any entity of the type.
+     * @return <code>true</code> if at least one entity matches the query, <code>false</code> otherwise.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public boolean exists(String entityName, String query) throws IOException, HpAlmException {
+        return countEntities(entityName, query) > 0;
+    }
+
+    /**
+     * @return the count of entities per result page for queries without explicit page size, or 0 for the server default
+     */
+    public int getDefaultPageSize() {
+        return defaultPageSize;
+    }
+
+    /**
+     * Sets the count of entities per result page for all queries of this session which do not specify a page size in their
+     * {@link QueryOptions}.
+     *
+     * @param defaultPageSize Count of entities per page, or 0 (the default) to use the default page size of the server.
+     */
+    public void setDefaultPageSize(int defaultPageSize) {
+        if (defaultPageSize < 0) {
+            throw new IllegalArgumentException("Page size must not be negative");
+        }
+        this.defaultPageSize = defaultPageSize;
+    }
+
+    /**
+     * @param options query options, or <code>null</code>
+     * @return the page size to use for a query with the given options, or 0 for the server default
+     */
+    int getPageSize(QueryOptions options) {
+        return options != null && options.getPageSize() > 0 ? options.getPageSize() : defaultPageSize;
+    }
+
+    private EntityCollection queryCollection(String url, QueryOptions options) throws IOException, HpAlmException {
+        AdaptivePageSizer sizer = options != null ? options.getAdaptivePageSizer() : null;
+        int pageSize = sizer != null ? sizer.getPageSize() : getPageSize(options);
+        EntityResultSet firstResultSet = doGet(PagedEntityCollectionImpl.appendPageSize(url, pageSize), sizer);
+        return new PagedEntityCollectionImpl(this, url, firstResultSet, options);
     }
 
     public EntityCollection getAssetRelations(Entity entity) throws IOException, HpAlmException {
-        String url = connector.buildEntityCollectionUrl(entity.getType()) + "/" + HpAlmUtil.DF_ID.format(entity.getId())
+        String url = connector.buildEntityCollectionUrl(entity.getType()) + "/" + HpAlmUtil.formatId(entity.getId())
                 + "/asset-relations";
         return new PagedEntityCollectionImpl(this, url, doGet(url));
     }
 
-    EntityResultSet doGet(String url) throws IOException, HpAlmException {
+    EntityResultSet doGet(final String url) throws IOException, HpAlmException {
+        if (requestCoalescingEnabled) {
+            return resultSetFlights.execute(coalescingKey(url, XML_ACCEPT_HEADER),
+                    new SingleFlight.Call<EntityResultSet>() {
+                        @Override
+                        public EntityResultSet call() throws IOException, HpAlmException {
+                            return fetchResultSet(url);
+                        }
+                    });
+        }
+        return fetchResultSet(url);
+    }
+
+    /**
+     * Retrieves a result page, and reports its response time and size to the given page sizer.
+     *
+     * @param url   URL of the page.
+     * @param sizer Page sizer to report to, or <code>null</code>.
+     * @return The result page.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    EntityResultSet doGet(String url, AdaptivePageSizer sizer) throws IOException, HpAlmException {
+        return sizer == null ? doGet(url) : fetchResultSet(url, sizer);
+    }
+
+    private EntityResultSet fetchResultSet(String url) throws IOException, HpAlmException {
+        return fetchResultSet(url, null);
+    }
+
+    private EntityResultSet fetchResultSet(String url, AdaptivePageSizer sizer) throws IOException, HpAlmException {
+        long start = System.nanoTime();
         Response response = connector.httpGet(url, null, XML_ACCEPT_HEADER);
         if (response.getStatusCode() != HttpStatus.SC_OK) {
             raiseHpAlmException(response);
         }
 
         try {
-            // unmarshal response
-            String xml = new String(response.getResponseData(), "UTF-8");
-            return EntityMarshallingUtils.marshal(EntityResultSet.class, xml);
+            // unmarshal response directly from its bytes
+            byte[] xml = response.getResponseData();
+            EntityResultSet resultSet = EntityMarshallingUtils.marshal(EntityResultSet.class, xml);
+            if (sizer != null && resultSet.getEntities() != null) {
+                sizer.recordPage(resultSet.getEntities().size(), System.nanoTime() - start, xml.length);
+            }
+            return resultSet;
         } catch (JAXBException e) {
             throw new HpAlmException("Invalid XML format returned by HP ALM", e);
         }
     }
 
+    EntityStreamReader doGetStream(String url) throws IOException, HpAlmException {
+        Response response = connector.httpGetStream(url, null, XML_ACCEPT_HEADER);
+        if (response.getStatusCode() != HttpStatus.SC_OK) {
+            IOUtils.closeQuietly(response.getResponseStream());
+            raiseHpAlmException(response);
+        }
+
+        return new EntityStreamReader(response.getResponseStream());
+    }
+
+    private String buildQueryUrl(String entityName, String query, String[] fields) {
+        if (query != null) {
+            query = encodeQuery(query);
+        }
+
+        return appendFields(connector.buildEntityCollectionUrl(entityName) + (query != null ? ("?query={" + query + "}") : ""),
+                fields);
+    }
+
+    private static String appendOrderBy(String url, String orderBy) {
+        return orderBy == null ? url : PagedEntityCollectionImpl.appendParameter(url, "order-by",
+                "{" + encodeQuery(orderBy) + "}");
+    }
+
+    private static String appendFields(String url, String[] fields) {
+        if (fields == null || fields.length == 0) {
+            return url;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String field : fields) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(encodeQuery(field));
+        }
+        return PagedEntityCollectionImpl.appendParameter(url, "fields", sb.toString());
+    }
+
     private void raiseHpAlmException(Response response) throws HpAlmException {
         try {
             if (response.getResponseData() != null && response.getResponseData().length > 0) {
@@ -407,8 +1099,252 @@ public class HpAlmSession {
     }
 
     public Entity getEntity(String entityName, long id) throws IOException, HpAlmException {
-        Response response = connector.httpGet(connector.buildEntityCollectionUrl(entityName) + "/" + HpAlmUtil.DF_ID.format(id),
-                null, XML_ACCEPT_HEADER);
+        return getEntity(entityName, id, (String[]) null);
+    }
+
+    /**
+     * Retrieves a single entity, with only the given fields.
+     *
+     * @param entityName Type name of the entity, e.g. <code>test</code>.
+     * @param id         ID of the entity.
+     * @param fields     Names of the fields to retrieve, or none to retrieve all fields.
+     * @return The entity.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error, e.g. if the entity does not exist.
+     */
+    public Entity getEntity(final String entityName, long id, String... fields) throws IOException, HpAlmException {
+        // only complete entities are cached
+        EntityCache cache = fields == null || fields.length == 0 ? entityCache : null;
+        long generation = 0;
+        if (cache != null) {
+            Entity cached = cache.get(connector.buildProjectUrl(), entityName, id);
+            if (cached != null) {
+                return cached;
+            }
+            // an update completing while the entity is retrieved must not be overwritten in the cache
+            generation = cache.getGeneration(connector.buildProjectUrl(), entityName, id);
+        }
+
+        final String url = appendFields(connector.buildEntityCollectionUrl(entityName) + "/" + HpAlmUtil.formatId(id), fields);
+        Entity entity;
+        if (requestCoalescingEnabled) {
+            entity = entityFlights.execute(coalescingKey(url, XML_ACCEPT_HEADER), new SingleFlight.Call<Entity>() {
+                @Override
+                public Entity call() throws IOException, HpAlmException {
+                    return fetchEntity(entityName, url);
+                }
+            });
+        } else {
+            entity = fetchEntity(entityName, url);
+        }
+
+        if (cache != null) {
+            cache.put(connector.buildProjectUrl(), entityName, entity, generation);
+        }
+        return entity;
+    }
+
+    /**
+     * @return the cache for entities retrieved by ID, or <code>null</code> if caching is disabled
+     */
+    public EntityCache getEntityCache() {
+        return entityCache;
+    }
+
+    /**
+     * Sets a cache for entities retrieved by ID using {@link #getEntity(String, long)} and the <code>get*</code> methods for
+     * single entities. Entities updated or deleted through this session are removed from the cache. A cache may be shared
+     * between sessions, e.g. {@link EntityCache#getShared()}. Disabled by default.
+     *
+     * @param entityCache the cache to use, or <code>null</code> to disable caching
+     */
+    public void setEntityCache(EntityCache entityCache) {
+        this.entityCache = entityCache;
+    }
+
+    private void invalidateCachedEntity(String entityType, long id) {
+        EntityCache cache = entityCache;
+        if (cache != null) {
+            cache.invalidate(connector.buildProjectUrl(), entityType, id);
+        }
+    }
+
+    /**
+     * Retrieves the entities with the given IDs, using as few requests as possible. The IDs are combined into queries of the
+     * form <code>id[a OR b OR ...]</code>, split into chunks whose URLs do not exceed the maximum URL length (see
+     * {@link #setMaxUrlLength(int)}). The chunks are requested concurrently.
+     *
+     * @param entityName Type name of the entities, e.g. <code>test</code>.
+     * @param ids        IDs of the entities to retrieve.
+     * @return The entities found, keyed by ID, and the IDs for which no entity exists.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public EntityLookupResult getEntities(String entityName, Collection<Long> ids) throws IOException, HpAlmException {
+        return getEntities(entityName, ids, null);
+    }
+
+    /**
+     * Retrieves the entities with the given IDs like {@link #getEntities(String, Collection)}, using the fields, parallelism
+     * and executor of the given options. If the options do not set a parallelism, at most {@link #DEFAULT_LOOKUP_PARALLELISM}
+     * chunks are requested concurrently; a parallelism of 1 requests the chunks one after another in the calling thread.
+     *
+     * @param entityName Type name of the entities, e.g. <code>test</code>.
+     * @param ids        IDs of the entities to retrieve.
+     * @param options    Options for the queries, or <code>null</code> for defaults.
+     * @return The entities found, keyed by ID, and the IDs for which no entity exists.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public EntityLookupResult getEntities(final String entityName, Collection<Long> ids, QueryOptions options)
+            throws IOException, HpAlmException {
+        final Set<Long> requestedIds = new LinkedHashSet<Long>(ids);
+        final String[] fields = options != null ? options.getFields() : null;
+        final List<List<Long>> chunks = buildLookupChunks(entityName, requestedIds, fields);
+        final Map<Long, Entity> found = new ConcurrentHashMap<Long, Entity>();
+
+        int parallelism = options != null && options.getParallelism() > 0 ? options.getParallelism()
+                : DEFAULT_LOOKUP_PARALLELISM;
+        if (chunks.size() <= 1 || parallelism == 1) {
+            for (List<Long> chunk : chunks) {
+                fetchLookupChunk(entityName, chunk, fields, found);
+            }
+        } else {
+            Executor executor = options != null && options.getExecutor() != null ? options.getExecutor()
+                    : getBackgroundExecutor();
+            final AtomicInteger nextChunk = new AtomicInteger();
+            List<CompletableFuture<Void>> workers = new ArrayList<CompletableFuture<Void>>();
+            for (int i = 0; i < Math.min(parallelism, chunks.size()); i++) {
+                final CompletableFuture<Void> worker = new CompletableFuture<Void>();
+                workers.add(worker);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            int index;
+                            while ((index = nextChunk.getAndIncrement()) < chunks.size()) {
+                                fetchLookupChunk(entityName, chunks.get(index), fields, found);
+                            }
+                            worker.complete(null);
+                        } catch (Throwable t) {
+                            // let the other workers stop early
+                            nextChunk.set(chunks.size());
+                            worker.completeExceptionally(t);
+                        }
+                    }
+                });
+            }
+            awaitAll(workers);
+        }
+
+        Map<Long, Entity> entities = new LinkedHashMap<Long, Entity>();
+        Set<Long> missingIds = new LinkedHashSet<Long>();
+        for (Long id : requestedIds) {
+            Entity entity = found.get(id);
+            if (entity != null) {
+                entities.put(id, entity);
+            } else {
+                missingIds.add(id);
+            }
+        }
+        return new EntityLookupResult(entities, missingIds);
+    }
+
+    /**
+     * @return the maximum length of query URLs built for ID lookups
+     */
+    public int getMaxUrlLength() {
+        return maxUrlLength;
+    }
+
+    /**
+     * Sets the maximum length of query URLs built by {@link #getEntities(String, Collection)}. Increase this if all servers
+     * and proxies between client and HP ALM accept longer URLs, to reduce the count of requests.
+     *
+     * @param maxUrlLength Maximum URL length, in characters.
+     */
+    public void setMaxUrlLength(int maxUrlLength) {
+        if (maxUrlLength < 256) {
+            throw new IllegalArgumentException("Maximum URL length must be at least 256");
+        }
+        this.maxUrlLength = maxUrlLength;
+    }
+
+    private List<List<Long>> buildLookupChunks(String entityName, Collection<Long> ids, String[] fields) {
+        int limit = maxUrlLength;
+        int orLength = encodeQuery(" OR ").length();
+        // URL without IDs, with space for the page size parameter
+        int baseLength = buildQueryUrl(entityName, "id[]", fields).length()
+                + ("&page-size=" + AdaptivePageSizer.DEFAULT_MAX_PAGE_SIZE).length();
+
+        List<List<Long>> chunks = new ArrayList<List<Long>>();
+        List<Long> chunk = new ArrayList<Long>();
+        int length = baseLength;
+        for (Long id : ids) {
+            int idLength = HpAlmUtil.formatId(id.longValue()).length();
+            if (!chunk.isEmpty() && (length + orLength + idLength > limit
+                    || chunk.size() == AdaptivePageSizer.DEFAULT_MAX_PAGE_SIZE)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<Long>();
+                length = baseLength;
+            }
+            length += (chunk.isEmpty() ? 0 : orLength) + idLength;
+            chunk.add(id);
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private void fetchLookupChunk(String entityName, List<Long> chunk, String[] fields, Map<Long, Entity> found)
+            throws IOException, HpAlmException {
+        StringBuilder query = new StringBuilder("id[");
+        for (int i = 0; i < chunk.size(); i++) {
+            if (i > 0) {
+                query.append(" OR ");
+            }
+            query.append(HpAlmUtil.formatId(chunk.get(i).longValue()));
+        }
+        query.append(']');
+
+        QueryOptions options = new QueryOptions().setFields(fields).setPageSize(chunk.size());
+        for (Entity entity : queryEntities(entityName, query.toString(), options)) {
+            found.put(Long.valueOf(entity.getId()), entity);
+        }
+    }
+
+    private static void awaitAll(List<CompletableFuture<Void>> futures) throws IOException, HpAlmException {
+        Throwable failure = null;
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for HP ALM responses");
+            }
+        }
+
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof HpAlmException) {
+            throw (HpAlmException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure != null) {
+            throw new HpAlmException("Could not retrieve entities", failure);
+        }
+    }
+
+    private Entity fetchEntity(String entityName, String url) throws IOException, HpAlmException {
+        Response response = connector.httpGet(url, null, XML_ACCEPT_HEADER);
         if (response.getStatusCode() != HttpStatus.SC_OK) {
             raiseHpAlmException(response);
         }
@@ -424,9 +1360,50 @@ public class HpAlmSession {
 
     private EntityCollection getEntityCollection(String entityName, String entitiesDisplayName) throws IOException,
             HpAlmException {
-        String url = connector.buildEntityCollectionUrl(entityName);
-        EntityResultSet resultSet = doGet(url);
-        return new PagedEntityCollectionImpl(this, url, resultSet);
+        return getEntityCollection(entityName, entitiesDisplayName, null);
+    }
+
+    private EntityCollection getEntityCollection(String entityName, String entitiesDisplayName, String[] fields)
+            throws IOException, HpAlmException {
+        return queryCollection(appendFields(connector.buildEntityCollectionUrl(entityName), fields), null);
+    }
+
+    private static String coalescingKey(String url, Map<String, String> headers) {
+        return headers.get("Accept") + " " + url;
+    }
+
+    private static EntityResultSet copyResultSet(EntityResultSet resultSet) {
+        List<Entity> entities = new ArrayList<Entity>();
+        if (resultSet.getEntities() != null) {
+            for (Entity entity : resultSet.getEntities()) {
+                entities.add(new Entity(entity));
+            }
+        }
+        EntityResultSet copy = new EntityResultSet(entities);
+        copy.setTotalResults(resultSet.getTotalResults());
+        return copy;
+    }
+
+    /**
+     * @return the default executor for background requests of all sessions, e.g. page prefetching
+     */
+    static Executor getBackgroundExecutor() {
+        return BackgroundExecutorHolder.INSTANCE;
+    }
+
+    private static final class BackgroundExecutorHolder {
+
+        static final ExecutorService INSTANCE = HpAlmExecutors.newBlockingIoExecutor("hpalm-background");
+    }
+
+    private static final class KeepAliveExecutorHolder {
+
+        static final ScheduledThreadPoolExecutor INSTANCE = new ScheduledThreadPoolExecutor(1,
+                HpAlmExecutors.newDaemonThreadFactory("hpalm-keep-alive"));
+
+        static {
+            INSTANCE.setRemoveOnCancelPolicy(true);
+        }
     }
 
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.io.IOException;
+
+/**
+ * Callback performing one or more operations on an {@link HpAlmSession}.
+ *
+ * @param <T> Type of the result of the callback.
+ */
+public interface HpAlmSessionCallback<T> {
+
+    /**
+     * Performs the operations of this callback.
+     *
+     * @param session Session to use.
+     * @return The result of the operations, may be <code>null</code>.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error.
+     */
+    public T doWithSession(HpAlmSession session) throws IOException, HpAlmException;
+
+}
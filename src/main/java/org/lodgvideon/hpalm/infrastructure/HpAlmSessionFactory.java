@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.io.IOException;
+
+/**
+ * Factory for new, authenticated {@link HpAlmSession}s, e.g. used by a {@link HpAlmSessionPool} to replace broken sessions.
+ */
+public interface HpAlmSessionFactory {
+
+    /**
+     * Logs in to HP ALM and returns a new session.
+     *
+     * @return The new session.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If the authentication fails, or HP ALM reports any other error.
+     */
+    public HpAlmSession createSession() throws IOException, HpAlmException;
+
+}
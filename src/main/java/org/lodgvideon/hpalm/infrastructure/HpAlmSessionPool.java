@@ -0,0 +1,439 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.MalformedChunkCodingException;
+import org.apache.http.NoHttpResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLException;
+
+/**
+ * Pool of authenticated {@link HpAlmSession}s. Each session is leased to one caller at a time, and released sessions are
+ * queued behind all other idle sessions, so subsequent requests are dispatched round-robin across all sessions of the pool.
+ * This lets many parallel reporters share a fixed number of logins, and scales their throughput with the pool size.
+ * <p>
+ * Sessions whose connection failed, e.g. because it has been reset, are discarded, and a replacement session is created in
+ * the background. If the replacement login fails as well, it is retried with increasing delay until it succeeds or the pool
+ * is closed. Other failures, e.g. timeouts, requests rejected by an open {@link CircuitBreaker} or a
+ * {@link ConcurrencyLimiter}, or errors of the caller, keep the session in the pool, so a struggling server is not burdened
+ * with additional logins.
+ * <p>
+ * Typical usage:
+ *
+ * <pre>
+ * HpAlmSessionPool pool = HpAlmSessionPool.create(serverUrl, domain, project, user, password, 4);
+ * Entity run = pool.execute(new HpAlmSessionCallback&lt;Entity&gt;() {
+ *     public Entity doWithSession(HpAlmSession session) throws IOException, HpAlmException {
+ *         return session.createEntity(runEntity);
+ *     }
+ * });
+ * </pre>
+ */
+public class HpAlmSessionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HpAlmSessionPool.class);
+
+    public static final long DEFAULT_LEASE_TIMEOUT_MILLIS = 30000;
+
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 500;
+
+    private static final long MAX_RETRY_DELAY_MILLIS = 60000;
+
+    private final HpAlmSessionFactory factory;
+
+    private final int size;
+
+    private final BlockingQueue<HpAlmSession> idleSessions = new LinkedBlockingQueue<HpAlmSession>();
+
+    private final Set<HpAlmSession> leasedSessions = Collections
+            .newSetFromMap(new ConcurrentHashMap<HpAlmSession, Boolean>());
+
+    private final ScheduledExecutorService maintenanceExecutor;
+
+    private final AtomicInteger replacementCount = new AtomicInteger();
+
+    private volatile long leaseTimeoutMillis = DEFAULT_LEASE_TIMEOUT_MILLIS;
+
+    private volatile CircuitBreaker circuitBreaker;
+
+    private volatile boolean closed;
+
+    private HpAlmSessionPool(HpAlmSessionFactory factory, int size) {
+        this.factory = factory;
+        this.size = size;
+        this.maintenanceExecutor = Executors.newScheduledThreadPool(2, HpAlmExecutors.newDaemonThreadFactory("hpalm-pool"));
+    }
+
+    /**
+     * Creates a new pool of sessions logged in with the given credentials. All sessions are logged in concurrently.
+     *
+     * @param serverUrl URL to the ALM application, without a trailing slash.
+     * @param domain    HP ALM domain.
+     * @param project   HP ALM project.
+     * @param userName  Name of the HP ALM user.
+     * @param password  Password of the HP ALM user.
+     * @param size      Number of sessions in the pool.
+     * @return The new pool.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If the authentication fails, or HP ALM reports any other error.
+     */
+    public static HpAlmSessionPool create(final String serverUrl, final String domain, final String project,
+                                          final String userName, final String password, int size)
+            throws IOException, HpAlmException {
+        return create(new HpAlmSessionFactory() {
+            @Override
+            public HpAlmSession createSession() throws IOException, HpAlmException {
+                return HpAlmSession.create(serverUrl, domain, project, userName, password);
+            }
+        }, size);
+    }
+
+    /**
+     * Creates a new pool of sessions created by the given factory. All sessions are created concurrently. If any session
+     * cannot be created, all other sessions are logged out again, and the error is thrown.
+     *
+     * @param factory Factory for the sessions of the pool. Also used to replace broken sessions.
+     * @param size    Number of sessions in the pool.
+     * @return The new pool.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If the authentication fails, or HP ALM reports any other error.
+     */
+    public static HpAlmSessionPool create(final HpAlmSessionFactory factory, int size) throws IOException, HpAlmException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+
+        HpAlmSessionPool pool = new HpAlmSessionPool(factory, size);
+
+        ExecutorService loginExecutor = HpAlmExecutors.newBlockingIoExecutor("hpalm-pool-login");
+        List<Future<HpAlmSession>> logins = new ArrayList<Future<HpAlmSession>>();
+        try {
+            for (int i = 0; i < size; i++) {
+                logins.add(loginExecutor.submit(new Callable<HpAlmSession>() {
+                    @Override
+                    public HpAlmSession call() throws Exception {
+                        return factory.createSession();
+                    }
+                }));
+            }
+
+            Throwable failure = null;
+            for (Future<HpAlmSession> login : logins) {
+                try {
+                    pool.idleSessions.add(login.get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (failure == null) {
+                        failure = new InterruptedIOException("Interrupted while creating HP ALM sessions");
+                    }
+                }
+            }
+
+            if (failure != null) {
+                pool.close();
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                }
+                if (failure instanceof HpAlmException) {
+                    throw (HpAlmException) failure;
+                }
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                }
+                throw new HpAlmException("Could not create HP ALM session", failure);
+            }
+        } finally {
+            loginExecutor.shutdown();
+        }
+
+        return pool;
+    }
+
+    /**
+     * Leases a session and executes the given callback with it. If the callback fails because the connection of the session
+     * failed (see {@link #isConnectionFailure(Throwable)}), the session is discarded and replaced in the background. All other
+     * exceptions, including {@link HpAlmException}s, return the session to the pool.
+     *
+     * @param callback Callback to execute.
+     * @param <T>      Type of the result of the callback.
+     * @return The result of the callback.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If no session becomes available within the lease timeout, or HP ALM reports any error.
+     */
+    public <T> T execute(HpAlmSessionCallback<T> callback) throws IOException, HpAlmException {
+        HpAlmSession session = lease(leaseTimeoutMillis, TimeUnit.MILLISECONDS);
+        boolean broken = false;
+        try {
+            return callback.doWithSession(session);
+        } catch (IOException e) {
+            broken = isConnectionFailure(e);
+            throw e;
+        } finally {
+            returnSession(session, broken);
+        }
+    }
+
+    /**
+     * Checks if the given exception indicates that the connection to HP ALM failed, e.g. it has been reset or closed by the
+     * server, so the session may not be usable any longer. Timeouts, rejections by a {@link CircuitBreaker} or
+     * {@link ConcurrencyLimiter}, and errors reading request data provided by the caller do not.
+     *
+     * @param e Exception thrown while using a session.
+     * @return <code>true</code> if the session should be replaced, <code>false</code> otherwise.
+     */
+    static boolean isConnectionFailure(Throwable e) {
+        return e instanceof SocketException || e instanceof SSLException || e instanceof UnknownHostException
+                || e instanceof NoHttpResponseException || e instanceof ConnectionClosedException
+                || e instanceof MalformedChunkCodingException;
+    }
+
+    /**
+     * Leases a session exclusively to the caller, waiting at most the given time for a session to become available. The
+     * session must be returned to the pool using {@link #release(HpAlmSession)} or {@link #invalidate(HpAlmSession)}.
+     *
+     * @param timeout Maximum time to wait for a session.
+     * @param unit    Unit of the timeout.
+     * @return The leased session.
+     * @throws IOException    If the current thread has been interrupted while waiting.
+     * @throws HpAlmException If no session becomes available within the given time.
+     */
+    public HpAlmSession lease(long timeout, TimeUnit unit) throws IOException, HpAlmException {
+        if (closed) {
+            throw new IllegalStateException("Session pool has been closed");
+        }
+
+        HpAlmSession session;
+        try {
+            session = idleSessions.poll(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an HP ALM session");
+        }
+
+        if (session == null) {
+            throw new HpAlmException("No HP ALM session available within " + unit.toMillis(timeout) + " ms");
+        }
+
+        CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null) {
+            session.getConnector().setCircuitBreaker(breaker);
+        }
+        leasedSessions.add(session);
+        return session;
+    }
+
+    /**
+     * Returns a leased session to the pool.
+     *
+     * @param session Session which has been leased from this pool.
+     */
+    public void release(HpAlmSession session) {
+        returnSession(session, false);
+    }
+
+    /**
+     * Returns a leased session which is not usable any longer, e.g. because of an I/O error. The session is discarded, and a
+     * replacement session is created in the background.
+     *
+     * @param session Session which has been leased from this pool.
+     */
+    public void invalidate(HpAlmSession session) {
+        returnSession(session, true);
+    }
+
+    private void returnSession(HpAlmSession session, boolean broken) {
+        if (!leasedSessions.remove(session)) {
+            throw new IllegalArgumentException("Session has not been leased from this pool");
+        }
+
+        if (broken) {
+            discardSession(session);
+            if (!closed) {
+                scheduleReplacement(0);
+            }
+        } else {
+            addIdleSession(session);
+        }
+    }
+
+    private void addIdleSession(HpAlmSession session) {
+        idleSessions.offer(session);
+        // pool may have been closed concurrently
+        if (closed && idleSessions.remove(session)) {
+            closeSession(session);
+        }
+    }
+
+    private void discardSession(final HpAlmSession session) {
+        try {
+            maintenanceExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeSession(session);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // pool has been closed
+            closeSession(session);
+        }
+    }
+
+    private void scheduleReplacement(final long delayMillis) {
+        try {
+            doScheduleReplacement(delayMillis);
+        } catch (RejectedExecutionException e) {
+            // pool has been closed
+        }
+    }
+
+    private void doScheduleReplacement(final long delayMillis) {
+        maintenanceExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (closed) {
+                    return;
+                }
+                try {
+                    HpAlmSession session = factory.createSession();
+                    replacementCount.incrementAndGet();
+                    addIdleSession(session);
+                } catch (Exception e) {
+                    long nextDelay = Math.min(Math.max(delayMillis * 2, INITIAL_RETRY_DELAY_MILLIS), MAX_RETRY_DELAY_MILLIS);
+                    LOG.warn("Could not create replacement HP ALM session, retrying in " + nextDelay + " ms", e);
+                    if (!closed) {
+                        scheduleReplacement(nextDelay);
+                    }
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void closeSession(HpAlmSession session) {
+        try {
+            session.logout();
+        } catch (IOException e) {
+            LOG.debug("Could not log out HP ALM session", e);
+        } finally {
+            session.getConnector().close();
+        }
+    }
+
+    /**
+     * @return the number of sessions of this pool
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of sessions currently available for lease
+     */
+    public int getAvailableCount() {
+        return idleSessions.size();
+    }
+
+    /**
+     * @return the number of sessions currently leased
+     */
+    public int getLeasedCount() {
+        return leasedSessions.size();
+    }
+
+    /**
+     * @return the number of broken sessions which have been replaced since the pool has been created
+     */
+    public int getReplacementCount() {
+        return replacementCount.get();
+    }
+
+    /**
+     * @return the maximum time in milliseconds {@link #execute(HpAlmSessionCallback)} waits for a session
+     */
+    public long getLeaseTimeoutMillis() {
+        return leaseTimeoutMillis;
+    }
+
+    /**
+     * @param leaseTimeoutMillis the maximum time in milliseconds {@link #execute(HpAlmSessionCallback)} waits for a session
+     */
+    public void setLeaseTimeoutMillis(long leaseTimeoutMillis) {
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+    }
+
+    /**
+     * @return the circuit breaker shared by all sessions of this pool, or <code>null</code>
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets a circuit breaker shared by all sessions of this pool, including replacement sessions, so all of them fail fast
+     * together while the server is unavailable. The breaker is applied to each session when it is leased. If no breaker is
+     * set (the default), each session uses the circuit breaker configured by the session factory, if any.
+     *
+     * @param circuitBreaker the circuit breaker shared by all sessions of this pool
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        if (circuitBreaker == null) {
+            throw new IllegalArgumentException("Circuit breaker must not be null");
+        }
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Closes this pool. All idle sessions are logged out immediately; leased sessions are logged out when they are returned.
+     */
+    public void close() {
+        closed = true;
+
+        HpAlmSession session;
+        while ((session = idleSessions.poll()) != null) {
+            closeSession(session);
+        }
+
+        maintenanceExecutor.shutdown();
+    }
+
+}
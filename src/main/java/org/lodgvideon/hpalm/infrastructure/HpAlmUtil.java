@@ -18,7 +18,6 @@ package org.lodgvideon.hpalm.infrastructure;
 import org.lodgvideon.hpalm.entity.Entity;
 import org.lodgvideon.hpalm.entity.TestInstanceBuilder;
 import org.lodgvideon.hpalm.entity.TestSetBuilder;
-import org.lodgvideon.hpalm.entity.TestSetFolderBuilder;
 
 import java.io.IOException;
 import java.text.DecimalFormat;
@@ -27,6 +26,9 @@ import java.util.Locale;
 
 public final class HpAlmUtil {
 
+    /**
+     * Format for entity IDs. The instance is shared and thus not thread-safe; use {@link #formatId(long)} instead.
+     */
     public static final DecimalFormat DF_ID = (DecimalFormat) NumberFormat.getInstance(Locale.US);
 
     static {
@@ -38,9 +40,21 @@ public final class HpAlmUtil {
     private HpAlmUtil() {
     }
 
+    /**
+     * Formats an entity ID for use in URLs and queries. In contrast to {@link #DF_ID}, this method is thread-safe.
+     *
+     * @param id ID to format.
+     * @return the ID, without any grouping separators.
+     */
+    public static String formatId(long id) {
+        return Long.toString(id);
+    }
+
     /**
      * Ensures that there exists a given path in the HP ALM test set folder structure. If there are folders missing for this path,
-     * these folders are created.
+     * these folders are created. <br>
+     * Resolved paths are kept in the {@link TestSetFolderIndex#getShared() shared folder index}, so resolving a known path
+     * again usually needs only one request for the folder itself.
      *
      * @param session HP ALM session to use for object queries and creation.
      * @param path    Path to create or to check for existence, e.g. <code>Root/lodgvideon/UITest</code>.
@@ -50,6 +64,23 @@ public final class HpAlmUtil {
      * @throws IllegalArgumentException If path is empty or invalid.
      */
     public static Entity createTestSetFolderPath(HpAlmSession session, String path) throws IOException, HpAlmException {
+        return createTestSetFolderPath(session, path, TestSetFolderIndex.getShared());
+    }
+
+    /**
+     * Ensures that there exists a given path in the HP ALM test set folder structure, using the given folder index. If there
+     * are folders missing for this path, these folders are created.
+     *
+     * @param session HP ALM session to use for object queries and creation.
+     * @param path    Path to create or to check for existence, e.g. <code>Root/lodgvideon/UITest</code>.
+     * @param index   Index of already resolved folder paths.
+     * @return The created or already existing folder at the path. This is an HP ALM "test-set-folder" org.lodggvideon.hpalm.entity.
+     * @throws IOException              If any I/O exception occurs during REST communication.
+     * @throws HpAlmException           If HP ALM reports any error.
+     * @throws IllegalArgumentException If path is empty or invalid.
+     */
+    public static Entity createTestSetFolderPath(HpAlmSession session, String path, TestSetFolderIndex index)
+            throws IOException, HpAlmException {
         if (path == null) {
             throw new IllegalArgumentException("Path is null");
         }
@@ -66,32 +97,7 @@ public final class HpAlmUtil {
             }
         }
 
-        String query = "name['" + pathSegments[0] + "']";
-
-        EntityCollection rootFolders = session.queryEntities("test-set-folder", query);
-        if (rootFolders.getTotalCount() != 1) {
-            throw new HpAlmException("Found no or more than one root folder matching first segment " + pathSegments[0]);
-        }
-        Entity result = rootFolders.iterator().next();
-
-        for (int i = 1; i < pathSegments.length; i++) {
-            query = "name['" + pathSegments[i] + "']; parent-id[" + result.getId() + "]";
-            EntityCollection folders = session.queryEntities("test-set-folder", query);
-            if (folders.getTotalCount() > 1) {
-                // should not be (not allowed by HP ALM)
-                throw new HpAlmException("Found more than one folder matching segment " + pathSegments[i]);
-            }
-            if (folders.getTotalCount() == 0) {
-                // create non-existing sub folder
-                TestSetFolderBuilder builder = new TestSetFolderBuilder();
-                Entity e = builder.setParentId(result.getId()).setName(pathSegments[i]).create();
-                result = session.createEntity(e);
-            } else {
-                result = folders.iterator().next();
-            }
-        }
-
-        return result;
+        return index.createOrGetFolder(session, pathSegments);
     }
 
     /**
@@ -108,8 +114,8 @@ public final class HpAlmUtil {
     public static Entity createOrGetTestSet(HpAlmSession session, long testSetFolderId, String testSetName) throws IOException,
             HpAlmException {
         // get all test sets in that folder with the given name
-        EntityCollection testSets = session.queryEntities("test-set", "parent-id[" + DF_ID.format(testSetFolderId) + "]; name['"
-                + testSetName + "']");
+        EntityCollection testSets = session.queryEntities("test-set", "parent-id[" + formatId(testSetFolderId) + "]; name['"
+                + testSetName + "']", firstEntityOnly());
 
         if (testSets.getTotalCount() == 0) {
             // create test set
@@ -144,12 +150,14 @@ public final class HpAlmUtil {
             HpAlmException {
         // get all test instances in that test set with the given test ID
         EntityCollection testInstances = session.queryEntities("test-instance",
-                "cycle-id[" + DF_ID.format(testSetId) + "]; test-id[" + DF_ID.format(testId) + "]"
-                        + (testConfigId != null ? "; test-config-id[" + DF_ID.format(testConfigId) + "]" : ""));
+                "cycle-id[" + formatId(testSetId) + "]; test-id[" + formatId(testId) + "]"
+                        + (testConfigId != null ? "; test-config-id[" + formatId(testConfigId) + "]" : ""),
+                firstEntityOnly());
 
         if (testInstances.getTotalCount() == 0 && createIfNotFound) {
             // determine next free order number
-            testInstances = session.queryEntities("test-instance", "cycle-id[" + DF_ID.format(testSetId) + "]");
+            testInstances = session.queryEntities("test-instance", "cycle-id[" + formatId(testSetId) + "]",
+                    new QueryOptions().setFields("id", "test-order"));
             long maxOrderNo = 0;
             for (Entity e : testInstances) {
                 maxOrderNo = Math.max(e.getLongFieldValue("test-order"), maxOrderNo);
@@ -173,4 +181,23 @@ public final class HpAlmUtil {
         return testInstances.getTotalCount() == 0 ? null : testInstances.iterator().next();
     }
 
+    /**
+     * Creates query options retrieving only the first page with one complete entity. The total count of the result is still
+     * reported.
+     *
+     * @return Query options for a minimal result page.
+     */
+    static QueryOptions firstEntityOnly() {
+        return new QueryOptions().setPageSize(1);
+    }
+
+    /**
+     * Creates query options retrieving only the ID of the first entity. The total count of the result is still reported.
+     *
+     * @return Query options for a minimal result page containing only the ID field.
+     */
+    static QueryOptions firstIdOnly() {
+        return firstEntityOnly().setFields("id");
+    }
+
 }
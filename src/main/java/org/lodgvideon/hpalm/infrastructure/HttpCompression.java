@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Helpers for HTTP content encodings (<code>gzip</code> and <code>deflate</code>).
+ */
+final class HttpCompression {
+
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private HttpCompression() {
+    }
+
+    /**
+     * Wraps the given stream into a decoding stream for the given content encoding. Unknown or missing encodings leave the
+     * stream untouched.
+     *
+     * @param in       Stream to decode, may be <code>null</code>.
+     * @param encoding Value of the <code>Content-Encoding</code> header, may be <code>null</code>.
+     * @return The decoding stream, or the given stream if no decoding is required.
+     * @throws IOException If the header of the compressed stream could not be read.
+     */
+    static InputStream decode(InputStream in, String encoding) throws IOException {
+        if (in == null || encoding == null) {
+            return in;
+        }
+        encoding = encoding.trim().toLowerCase(Locale.US);
+        if (!"gzip".equals(encoding) && !"x-gzip".equals(encoding) && !"deflate".equals(encoding)) {
+            return in;
+        }
+
+        // responses without body (e.g. 204) may still carry the header
+        PushbackInputStream pin = new PushbackInputStream(in, 2);
+        int b0 = pin.read();
+        if (b0 == -1) {
+            return pin;
+        }
+        int b1 = pin.read();
+        if (b1 != -1) {
+            pin.unread(b1);
+        }
+        pin.unread(b0);
+
+        if (!"deflate".equals(encoding)) {
+            return new GZIPInputStream(pin, BUFFER_SIZE);
+        }
+
+        // "deflate" should be zlib wrapped, but some servers send raw deflate data
+        boolean zlib = b1 != -1 && (b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0;
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(pin, inflater, BUFFER_SIZE) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    inflater.end();
+                }
+                super.close();
+            }
+        };
+    }
+
+    /**
+     * Compresses the given data using gzip.
+     *
+     * @param data Data to compress.
+     * @return The compressed data.
+     * @throws IOException If the data could not be compressed.
+     */
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        GZIPOutputStream out = new GZIPOutputStream(baos, BUFFER_SIZE);
+        out.write(data);
+        out.close();
+        return baos.toByteArray();
+    }
+
+}
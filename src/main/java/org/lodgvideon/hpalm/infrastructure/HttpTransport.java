@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.io.IOException;
+
+/**
+ * Service provider interface for the HTTP layer below {@link RestConnector}. The connector prepares headers and cookies, and
+ * the transport performs the actual request on the wire. <br>
+ * Implementations must be safe for concurrent use.
+ *
+ * @see UrlConnectionHttpTransport
+ * @see PooledHttpTransport
+ */
+public interface HttpTransport {
+
+    /**
+     * Default time in milliseconds to wait for a connection to be established.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Default time in milliseconds to wait for data on an established connection.
+     */
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 120000;
+
+    /**
+     * Executes the given request. The returned response must contain the status code and the response headers. The response
+     * body must <b>not</b> be read, but be provided via {@link Response#setResponseStream(java.io.InputStream)}. If the server
+     * answered with an error status code, a failure must be set via {@link Response#setFailure(Exception)}, and the response
+     * stream must contain the error body, if any. The caller is responsible for closing the response stream.
+     *
+     * @param request Request to execute.
+     * @return The response of the server, with an open (or <code>null</code>) response stream.
+     * @throws IOException If the request could not be sent, or no response could be received.
+     */
+    public Response execute(HttpTransportRequest request) throws IOException;
+
+    /**
+     * Releases all resources held by this transport, e.g. pooled connections. The transport must not be used afterwards.
+     */
+    public void close();
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An HTTP request to be executed by an {@link HttpTransport}. Instances are immutable.
+ */
+public final class HttpTransportRequest {
+
+    private final String method;
+
+    private final String url;
+
+    private final Map<String, String> headers;
+
+    private final RequestBody body;
+
+    /**
+     * Creates a new request.
+     *
+     * @param method  HTTP method, e.g. <code>GET</code>.
+     * @param url     Full URL of the request, including the query string.
+     * @param headers Headers to send, including <code>Cookie</code> and <code>Content-Type</code>, if any.
+     * @param body    Request body, or <code>null</code> if the request has no body.
+     */
+    public HttpTransportRequest(String method, String url, Map<String, String> headers, RequestBody body) {
+        this.method = method;
+        this.url = url;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<String, String>(headers));
+        this.body = body;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return The request body, or <code>null</code> if the request has no body.
+     */
+    public RequestBody getBody() {
+        return body;
+    }
+
+    /**
+     * @return <code>true</code> if this request has a non-empty body, <code>false</code> otherwise.
+     */
+    public boolean hasBody() {
+        return body != null && body.getContentLength() != 0;
+    }
+
+}
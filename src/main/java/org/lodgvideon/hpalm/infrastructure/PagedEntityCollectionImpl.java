@@ -18,8 +18,28 @@ package org.lodgvideon.hpalm.infrastructure;
 import org.lodgvideon.hpalm.entity.Entity;
 import org.lodgvideon.hpalm.entity.EntityResultSet;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class PagedEntityCollectionImpl implements EntityCollection {
 
@@ -31,22 +51,107 @@ public class PagedEntityCollectionImpl implements EntityCollection {
 
     private EntityResultSet firstResultSet;
 
+    private EntityStreamReader firstPageReader;
+
+    private boolean streaming;
+
+    private QueryOptions options;
+
+    // requested page size; 0 for server default
+    private int pageSize;
+
+    private AdaptivePageSizer pageSizer;
+
+    // entity type and query for keyset pagination; null for offset pagination
+    private String keysetEntityName;
+
+    private String keysetQuery;
+
     public PagedEntityCollectionImpl(HpAlmSession session, String queryUrl, EntityResultSet firstResultSet) {
+        this(session, queryUrl, firstResultSet, null);
+    }
+
+    /**
+     * Creates a collection which retrieves further pages according to the given options.
+     *
+     * @param session        Session to use for querying further pages.
+     * @param queryUrl       URL of the query, without paging parameters.
+     * @param firstResultSet First page of the query.
+     * @param options        Query options, or <code>null</code> for defaults.
+     */
+    public PagedEntityCollectionImpl(HpAlmSession session, String queryUrl, EntityResultSet firstResultSet,
+                                     QueryOptions options) {
         this.session = session;
         this.queryUrl = queryUrl;
         this.firstResultSet = firstResultSet;
         this.totalCount = firstResultSet.getTotalResults();
+        this.options = options;
+        this.pageSize = session.getPageSize(options);
+        this.pageSizer = options != null ? options.getAdaptivePageSizer() : null;
+    }
+
+    /**
+     * Creates a collection which retrieves further pages using keyset pagination, i.e. by querying entities with IDs greater
+     * than the last one received. The first page must have been queried ordered by ID.
+     *
+     * @param session        Session to use for querying further pages.
+     * @param entityName     Type name of the queried entities.
+     * @param query          HP ALM query expression, or <code>null</code> if all entities are queried.
+     * @param firstResultSet First page of the query.
+     * @param options        Query options.
+     */
+    public PagedEntityCollectionImpl(HpAlmSession session, String entityName, String query, EntityResultSet firstResultSet,
+                                     QueryOptions options) {
+        this(session, (String) null, firstResultSet, options);
+        this.keysetEntityName = entityName;
+        this.keysetQuery = query;
+    }
+
+    /**
+     * Creates a collection which parses its pages directly from the HTTP response streams. The first page reader is consumed
+     * by the first iterator; further iterators query the first page again.
+     *
+     * @param session         Session to use for querying further pages.
+     * @param queryUrl        URL of the query, without paging parameters.
+     * @param firstPageReader Reader for the first page of the query.
+     */
+    public PagedEntityCollectionImpl(HpAlmSession session, String queryUrl, EntityStreamReader firstPageReader) {
+        this.session = session;
+        this.queryUrl = queryUrl;
+        this.firstPageReader = firstPageReader;
+        this.totalCount = firstPageReader.getTotalResults();
+        this.streaming = true;
+        this.pageSize = session.getPageSize(null);
     }
 
     @Override
-    public Iterator<Entity> iterator() {
+    public EntityIterator iterator() {
+        if (streaming) {
+            EntityStreamReader reader = firstPageReader;
+            firstPageReader = null;
+            return new StreamingEntityCollectionIterator(reader);
+        }
         if (firstResultSet == null || firstResultSet.getEntities() == null) {
-            return Collections.<Entity>emptySet().iterator();
+            return new ListEntityIterator(Collections.<Entity>emptyList());
         }
         // optimization: for non-paging results, directly access collection
         // <=: Have seen results from HP ALM containing an empty additional object...
         if (totalCount <= firstResultSet.getEntities().size()) {
-            return Collections.unmodifiableList(firstResultSet.getEntities()).iterator();
+            return new ListEntityIterator(firstResultSet.getEntities());
+        }
+
+        if (keysetEntityName != null) {
+            return new KeysetEntityCollectionIterator();
+        }
+
+        if (options != null) {
+            Executor executor = options.getExecutor() != null ? options.getExecutor() : HpAlmSession.getBackgroundExecutor();
+            if (options.getParallelism() > 1) {
+                return new ParallelEntityCollectionIterator(options.getParallelism(), options.isOrdered(), executor);
+            }
+            if (options.getPrefetchDepth() > 0) {
+                return new PrefetchingEntityCollectionIterator(options.getPrefetchDepth(), executor);
+            }
         }
 
         return new PagedEntityCollectionIterator();
@@ -57,7 +162,68 @@ public class PagedEntityCollectionImpl implements EntityCollection {
         return totalCount;
     }
 
-    private class PagedEntityCollectionIterator implements Iterator<Entity> {
+    @Override
+    public Spliterator<Entity> spliterator() {
+        if (streaming || keysetEntityName != null) {
+            return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+        }
+        if (firstResultSet == null || firstResultSet.getEntities() == null) {
+            return Spliterators.emptySpliterator();
+        }
+        List<Entity> firstPage = firstResultSet.getEntities();
+        if (firstPage.isEmpty() || totalCount <= firstPage.size()) {
+            return Collections.unmodifiableList(firstPage).spliterator();
+        }
+
+        int stride = firstPage.size();
+        return new PageSpliterator(stride, null, 0, 0, (totalCount + stride - 1) / stride);
+    }
+
+    @Override
+    public Stream<Entity> stream() {
+        return streaming ? streamResponses(false) : EntityCollection.super.stream();
+    }
+
+    @Override
+    public Stream<Entity> parallelStream() {
+        return streaming ? streamResponses(true) : EntityCollection.super.parallelStream();
+    }
+
+    /**
+     * Returns a stream reading the pages from the response streams. Closing the stream closes the current response.
+     */
+    private Stream<Entity> streamResponses(boolean parallel) {
+        final EntityIterator iterator = iterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL),
+                parallel).onClose(new Runnable() {
+            @Override
+            public void run() {
+                iterator.close();
+            }
+        });
+    }
+
+    private String buildPageUrl(int startIndex, int size) {
+        return appendPageSize(appendParameter(queryUrl, "start-index", Integer.toString(startIndex)), size);
+    }
+
+    /**
+     * @param fixedPageSize size of the first page, used for all further pages
+     * @return the page size to request, or 0 to not request any page size
+     */
+    private int getFixedPageSize(int fixedPageSize) {
+        return pageSize > 0 || pageSizer != null ? fixedPageSize : 0;
+    }
+
+    static String appendPageSize(String url, int pageSize) {
+        return pageSize > 0 ? appendParameter(url, "page-size", Integer.toString(pageSize)) : url;
+    }
+
+    static String appendParameter(String url, String name, String value) {
+        return url + (url.contains("?") ? "&" : "?") + name + "=" + value;
+    }
+
+    private class PagedEntityCollectionIterator implements EntityIterator {
 
         private EntityResultSet currentSet;
 
@@ -74,11 +240,9 @@ public class PagedEntityCollectionImpl implements EntityCollection {
         }
 
         private void querySet() {
-            String url = queryUrl;
-            url += (url.contains("?") ? "&" : "?");
-            url += "start-index=" + offset;
             try {
-                currentSet = session.doGet(url);
+                int size = pageSizer != null ? pageSizer.getPageSize() : pageSize;
+                currentSet = session.doGet(buildPageUrl(offset, size), pageSizer);
             } catch (Exception e) {
                 throw new IllegalStateException("Could not retrieve next bunch of entities", e);
             }
@@ -120,6 +284,567 @@ public class PagedEntityCollectionImpl implements EntityCollection {
             throw new UnsupportedOperationException();
         }
 
+        @Override
+        public void close() {
+            // nothing to release; pages are retrieved synchronously
+        }
+
+    }
+
+    /**
+     * Iterator requesting the following pages in the background while a page is being consumed. The page size is derived from
+     * the size of the first page. Pending pages are cancelled when the iterator is closed, or retrieving a page fails.
+     */
+    private class PrefetchingEntityCollectionIterator implements EntityIterator {
+
+        private final int depth;
+
+        private final Executor executor;
+
+        private final int pageSize;
+
+        private final Deque<Future<EntityResultSet>> pendingPages = new ArrayDeque<Future<EntityResultSet>>();
+
+        // start index of the next page to request
+        private int nextRequestOffset;
+
+        private List<Entity> currentPage;
+
+        private int listIndex;
+
+        private int returnedCount;
+
+        private PrefetchingEntityCollectionIterator(int depth, Executor executor) {
+            this.depth = depth;
+            this.executor = executor;
+            currentPage = firstResultSet.getEntities();
+            pageSize = currentPage.size();
+            nextRequestOffset = 1 + pageSize;
+            requestPages();
+        }
+
+        private void requestPages() {
+            while (pendingPages.size() < depth && nextRequestOffset <= totalCount) {
+                final String url = buildPageUrl(nextRequestOffset, getFixedPageSize(pageSize));
+                FutureTask<EntityResultSet> task = new FutureTask<EntityResultSet>(new Callable<EntityResultSet>() {
+                    @Override
+                    public EntityResultSet call() throws Exception {
+                        return session.doGet(url);
+                    }
+                });
+                executor.execute(task);
+                pendingPages.add(task);
+                nextRequestOffset += pageSize;
+            }
+        }
+
+        private List<Entity> awaitPage(Future<EntityResultSet> page) {
+            try {
+                return page.get().getEntities();
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Could not retrieve next bunch of entities",
+                        new InterruptedIOException("Interrupted while waiting for next page"));
+            } catch (ExecutionException e) {
+                close();
+                throw new IllegalStateException("Could not retrieve next bunch of entities", e.getCause());
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return returnedCount < totalCount && (listIndex < currentPage.size() || !pendingPages.isEmpty());
+        }
+
+        @Override
+        public Entity next() {
+            if (!hasNext()) {
+                throw new IllegalStateException("No more elements available");
+            }
+
+            if (listIndex == currentPage.size()) {
+                currentPage = awaitPage(pendingPages.poll());
+                listIndex = 0;
+                // consumption of this page starts; keep the prefetch window filled
+                requestPages();
+                if (currentPage == null || currentPage.isEmpty()) {
+                    close();
+                    throw new IllegalStateException("No more elements returned by HP ALM, although expected");
+                }
+            }
+
+            returnedCount++;
+            return currentPage.get(listIndex++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            // pages already being retrieved complete in the background, and are discarded
+            for (Future<EntityResultSet> page : pendingPages) {
+                page.cancel(false);
+            }
+            pendingPages.clear();
+            currentPage = Collections.emptyList();
+            listIndex = 0;
+        }
+
+    }
+
+    /**
+     * Iterator fetching the remaining pages concurrently, as all page offsets are known from the total count of the first
+     * page. At most <code>parallelism</code> workers request the pages in ascending order. Pages are returned in query order,
+     * or in the order of their arrival. <br>
+     * Workers stop requesting pages while twice the parallelism of pages is requested or buffered, but not consumed yet, and
+     * continue when a page is consumed. After a failure, no further pages are requested, and the iterator fails on each call.
+     */
+    private class ParallelEntityCollectionIterator implements EntityIterator {
+
+        private final int parallelism;
+
+        private final boolean ordered;
+
+        private final Executor executor;
+
+        private final int pageSize;
+
+        private final int pageCount;
+
+        // count of pages requested or buffered, but not consumed
+        private final int window;
+
+        private final AtomicReferenceArray<CompletableFuture<List<Entity>>> pages;
+
+        // indexes of the pages in the order of their arrival, for unordered iteration
+        private final BlockingQueue<Integer> arrivedPages = new LinkedBlockingQueue<Integer>();
+
+        private final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while ((index = claimPage()) >= 0) {
+                    fetchPage(index);
+                }
+            }
+        };
+
+        // guarded by this
+        private int nextPageIndex;
+
+        // guarded by this
+        private int activeWorkers;
+
+        // guarded by this; written by consuming thread only
+        private int consumedPages;
+
+        // guarded by this
+        private boolean closed;
+
+        private volatile Throwable failure;
+
+        private List<Entity> currentPage;
+
+        private int listIndex;
+
+        private ParallelEntityCollectionIterator(int parallelism, boolean ordered, Executor executor) {
+            this.parallelism = parallelism;
+            this.ordered = ordered;
+            this.executor = executor;
+            currentPage = firstResultSet.getEntities();
+            pageSize = currentPage.size();
+            pageCount = pageSize == 0 ? 0 : (Math.max(0, totalCount - pageSize) + pageSize - 1) / pageSize;
+            window = parallelism * 2;
+
+            pages = new AtomicReferenceArray<CompletableFuture<List<Entity>>>(pageCount);
+            for (int i = 0; i < pageCount; i++) {
+                pages.set(i, new CompletableFuture<List<Entity>>());
+            }
+            startWorkers();
+        }
+
+        private void startWorkers() {
+            int count = 0;
+            synchronized (this) {
+                int available = Math.min(pageCount, consumedPages + window) - nextPageIndex;
+                while (!closed && failure == null && activeWorkers < parallelism && count < available) {
+                    activeWorkers++;
+                    count++;
+                }
+            }
+            // executor may run workers in the calling thread, so do not hold the lock
+            for (int i = 0; i < count; i++) {
+                executor.execute(worker);
+            }
+        }
+
+        /**
+         * @return index of the next page to fetch, or -1 if the calling worker shall stop
+         */
+        private synchronized int claimPage() {
+            if (closed || failure != null || nextPageIndex >= Math.min(pageCount, consumedPages + window)) {
+                activeWorkers--;
+                return -1;
+            }
+            return nextPageIndex++;
+        }
+
+        private void fetchPage(int index) {
+            CompletableFuture<List<Entity>> page = pages.get(index);
+            try {
+                List<Entity> entities = session.doGet(buildPageUrl(1 + (index + 1) * pageSize, getFixedPageSize(pageSize)))
+                        .getEntities();
+                page.complete(entities == null ? Collections.<Entity>emptyList() : entities);
+            } catch (Throwable t) {
+                failure = t;
+                // pages which will never be requested must not block the consuming thread
+                for (int i = 0; i < pageCount; i++) {
+                    CompletableFuture<List<Entity>> p = pages.get(i);
+                    if (p != null) {
+                        p.completeExceptionally(t);
+                    }
+                }
+            }
+            arrivedPages.add(Integer.valueOf(index));
+        }
+
+        private List<Entity> awaitNextPage() {
+            try {
+                int index = ordered ? consumedPages : arrivedPages.take().intValue();
+                List<Entity> page = pages.get(index).get();
+                pages.set(index, null);
+                synchronized (this) {
+                    consumedPages++;
+                }
+                startWorkers();
+                return page;
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Could not retrieve next bunch of entities",
+                        new InterruptedIOException("Interrupted while waiting for next page"));
+            } catch (ExecutionException e) {
+                close();
+                throw new IllegalStateException("Could not retrieve next bunch of entities", e.getCause());
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            Throwable t = failure;
+            if (t != null) {
+                close();
+                throw new IllegalStateException("Could not retrieve next bunch of entities", t);
+            }
+            while (listIndex == currentPage.size() && consumedPages < pageCount && !isClosed()) {
+                currentPage = awaitNextPage();
+                listIndex = 0;
+            }
+            return listIndex < currentPage.size();
+        }
+
+        @Override
+        public Entity next() {
+            if (!hasNext()) {
+                throw new IllegalStateException("No more elements available");
+            }
+            return currentPage.get(listIndex++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private synchronized boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                closed = true;
+            }
+            // pages already being retrieved complete in the background, and are discarded
+            for (int i = 0; i < pageCount; i++) {
+                CompletableFuture<List<Entity>> page = pages.get(i);
+                if (page != null) {
+                    page.cancel(false);
+                }
+            }
+            currentPage = Collections.emptyList();
+            listIndex = 0;
+        }
+
+    }
+
+    private class KeysetEntityCollectionIterator implements EntityIterator {
+
+        private List<Entity> currentPage;
+
+        private int listIndex;
+
+        // true if the current page contains all remaining entities
+        private boolean lastPage;
+
+        private long lastId;
+
+        private KeysetEntityCollectionIterator() {
+            currentPage = firstResultSet.getEntities();
+            lastPage = totalCount <= currentPage.size();
+        }
+
+        private void queryPage() {
+            EntityResultSet resultSet;
+            try {
+                int size = pageSizer != null ? pageSizer.getPageSize() : pageSize;
+                resultSet = session.doGet(session.buildKeysetPageUrl(keysetEntityName, keysetQuery, options, lastId, size),
+                        pageSizer);
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not retrieve next bunch of entities", e);
+            }
+
+            currentPage = resultSet.getEntities() == null ? Collections.<Entity>emptyList() : resultSet.getEntities();
+            listIndex = 0;
+            // total results of a keyset page is the count of remaining entities
+            lastPage = currentPage.isEmpty() || resultSet.getTotalResults() <= currentPage.size();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (listIndex == currentPage.size() && !lastPage) {
+                queryPage();
+            }
+            return listIndex < currentPage.size();
+        }
+
+        @Override
+        public Entity next() {
+            if (!hasNext()) {
+                throw new IllegalStateException("No more elements available");
+            }
+            Entity entity = currentPage.get(listIndex++);
+            lastId = entity.getId();
+            return entity;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            // nothing to release; pages are retrieved synchronously
+        }
+
+    }
+
+    private class StreamingEntityCollectionIterator implements EntityIterator {
+
+        private EntityStreamReader reader;
+
+        // start index of the page currently being read
+        private int offset = 1;
+
+        private Entity nextEntity;
+
+        private StreamingEntityCollectionIterator(EntityStreamReader firstPageReader) {
+            reader = firstPageReader;
+            if (reader == null) {
+                reader = queryPage();
+            }
+        }
+
+        private EntityStreamReader queryPage() {
+            try {
+                return session.doGetStream(buildPageUrl(offset, pageSize));
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not retrieve next bunch of entities", e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (nextEntity == null && reader != null) {
+                    if (reader.hasNext()) {
+                        nextEntity = reader.next();
+                    } else {
+                        // page exhausted; advance to next page, if any
+                        int read = reader.getReadCount();
+                        int total = reader.getTotalResults();
+                        reader.close();
+                        reader = null;
+                        offset += read;
+                        if (read > 0 && offset <= total) {
+                            reader = queryPage();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw new IllegalStateException("Could not read next bunch of entities", e);
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+            return nextEntity != null;
+        }
+
+        @Override
+        public Entity next() {
+            if (!hasNext()) {
+                throw new IllegalStateException("No more elements available");
+            }
+            Entity e = nextEntity;
+            nextEntity = null;
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            nextEntity = null;
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+
+    }
+
+    /**
+     * Iterator over a list which has been retrieved completely.
+     */
+    private static class ListEntityIterator implements EntityIterator {
+
+        private final Iterator<Entity> iterator;
+
+        private ListEntityIterator(List<Entity> entities) {
+            iterator = entities.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Entity next() {
+            return iterator.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            // nothing to release
+        }
+
+    }
+
+    /**
+     * Spliterator over a range of pages. Splits on page boundaries, and retrieves each page only when it is traversed, so
+     * the pages of different splits are retrieved concurrently when processed by different threads. The size is calculated
+     * from the total count reported with the first page; all pages except the last one are expected to be full. A page not
+     * matching the expected size causes a {@link ConcurrentModificationException}, as the reported size would be wrong.
+     */
+    private class PageSpliterator implements Spliterator<Entity> {
+
+        private final int stride;
+
+        // page currently traversed, or null
+        private List<Entity> currentPage;
+
+        private int listIndex;
+
+        // index of the first page not yet retrieved; page 0 is the first result set
+        private int nextPage;
+
+        private final int endPage;
+
+        private PageSpliterator(int stride, List<Entity> currentPage, int listIndex, int nextPage, int endPage) {
+            this.stride = stride;
+            this.currentPage = currentPage;
+            this.listIndex = listIndex;
+            this.nextPage = nextPage;
+            this.endPage = endPage;
+        }
+
+        private List<Entity> fetchPage(int index) {
+            if (index == 0) {
+                return firstResultSet.getEntities();
+            }
+            List<Entity> entities;
+            try {
+                entities = session.doGet(buildPageUrl(1 + index * stride, getFixedPageSize(stride))).getEntities();
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not retrieve next bunch of entities", e);
+            }
+            if (entities == null) {
+                entities = Collections.emptyList();
+            }
+
+            // the reported size is only valid as long as the query result does not change
+            int expected = Math.min(stride, totalCount - index * stride);
+            if (entities.size() != expected) {
+                throw new ConcurrentModificationException("HP ALM returned " + entities.size() + " entities for page "
+                        + (index + 1) + ", but " + expected + " were expected; the query result has changed during traversal");
+            }
+            return entities;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Entity> action) {
+            while (currentPage == null || listIndex == currentPage.size()) {
+                if (nextPage >= endPage) {
+                    currentPage = null;
+                    return false;
+                }
+                currentPage = fetchPage(nextPage++);
+                listIndex = 0;
+            }
+            action.accept(currentPage.get(listIndex++));
+            return true;
+        }
+
+        @Override
+        public Spliterator<Entity> trySplit() {
+            if (endPage - nextPage < 2) {
+                return null;
+            }
+            // prefix keeps the rest of the current page
+            int mid = nextPage + (endPage - nextPage) / 2;
+            PageSpliterator prefix = new PageSpliterator(stride, currentPage, listIndex, nextPage, mid);
+            currentPage = null;
+            listIndex = 0;
+            nextPage = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            long pending = Math.max(0, Math.min((long) endPage * stride, totalCount) - (long) nextPage * stride);
+            return pending + (currentPage == null ? 0 : currentPage.size() - listIndex);
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.NONNULL;
+        }
+
     }
 
 }
@@ -0,0 +1,544 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.pool.BasicConnFactory;
+import org.apache.http.impl.pool.BasicConnPool;
+import org.apache.http.impl.pool.BasicPoolEntry;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.pool.ConnFactory;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpProcessor;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.protocol.ImmutableHttpProcessor;
+import org.apache.http.protocol.RequestConnControl;
+import org.apache.http.protocol.RequestContent;
+import org.apache.http.protocol.RequestTargetHost;
+import org.apache.http.protocol.RequestUserAgent;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link HttpTransport} keeping a pool of persistent HTTP/1.1 connections, based on the blocking connection pool of Apache
+ * HttpCore. The pool size is limited in total and per route (scheme, host and port). Connections idle for longer than the
+ * configured idle timeout are evicted. <br>
+ * A response stream must be read to its end and closed to return its connection to the pool. Streams closed early cause the
+ * connection to be discarded.
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+    public static final int DEFAULT_MAX_TOTAL = 20;
+
+    public static final int DEFAULT_MAX_PER_ROUTE = 10;
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+
+    private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+
+    private static final long DEFAULT_LEASE_TIMEOUT_MILLIS = 60000;
+
+    private final MeteredConnPool pool;
+
+    private final HttpProcessor processor = new ImmutableHttpProcessor(new RequestContent(), new RequestTargetHost(),
+            new RequestConnControl(), new RequestUserAgent("HP-ALM-Connector"));
+
+    private final HttpRequestExecutor executor = new HttpRequestExecutor();
+
+    private final ConnectionReuseStrategy reuseStrategy = DefaultConnectionReuseStrategy.INSTANCE;
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private final AtomicLong createdCount = new AtomicLong();
+
+    private final AtomicLong reusedCount = new AtomicLong();
+
+    private volatile long idleTimeoutMillis;
+
+    private volatile long leaseTimeoutMillis = DEFAULT_LEASE_TIMEOUT_MILLIS;
+
+    private volatile int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+    private volatile int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    /**
+     * Creates a new pooled transport with default limits.
+     */
+    public PooledHttpTransport() {
+        this(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates a new pooled transport.
+     *
+     * @param maxTotal          Maximum count of connections in the pool, over all routes.
+     * @param maxPerRoute       Maximum count of connections per route.
+     * @param idleTimeoutMillis Time in milliseconds after which idle connections are closed.
+     */
+    public PooledHttpTransport(int maxTotal, int maxPerRoute, long idleTimeoutMillis) {
+        if (maxTotal < 1 || maxPerRoute < 1) {
+            throw new IllegalArgumentException("Connection limits must be positive");
+        }
+        SSLSocketFactory sslFactory = new EndpointIdentifyingSSLSocketFactory(
+                (SSLSocketFactory) SSLSocketFactory.getDefault());
+        pool = new MeteredConnPool(new MeteredConnFactory(sslFactory));
+        pool.setMaxTotal(maxTotal);
+        pool.setDefaultMaxPerRoute(maxPerRoute);
+        pool.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Sets the maximum count of connections to the server of the given URL, overriding the default per-route limit.
+     *
+     * @param url            URL of the server, e.g. <code>https://alm.example.com/qcbin</code>.
+     * @param maxConnections Maximum count of connections to this server.
+     * @throws IOException If the URL is malformed.
+     */
+    public void setMaxConnectionsPerRoute(String url, int maxConnections) throws IOException {
+        pool.setMaxPerRoute(toHttpHost(new URL(url)), maxConnections);
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public long getLeaseTimeoutMillis() {
+        return leaseTimeoutMillis;
+    }
+
+    /**
+     * @param leaseTimeoutMillis Maximum time in milliseconds to wait for a free connection when the pool is exhausted.
+     */
+    public void setLeaseTimeoutMillis(long leaseTimeoutMillis) {
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * @param connectTimeoutMillis Time in milliseconds to wait for a new connection to be established. 0 waits forever.
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * @param readTimeoutMillis Time in milliseconds to wait for data on a connection. 0 waits forever. Applies to pooled
+     *                          connections as well.
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * @return The count of requests executed by this transport.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return The count of connections opened by this transport.
+     */
+    public long getCreatedConnectionCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * @return The count of requests which were sent over an already established connection.
+     */
+    public long getReusedConnectionCount() {
+        return reusedCount.get();
+    }
+
+    /**
+     * @return Current statistics of the pool (leased, available and pending connections).
+     */
+    public PoolStats getPoolStats() {
+        return pool.getTotalStats();
+    }
+
+    /**
+     * Closes all expired connections and all connections which have been idle for longer than the idle timeout. This is
+     * performed automatically before each request.
+     */
+    public void evictIdleConnections() {
+        pool.closeExpired();
+        pool.closeIdle(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Response execute(HttpTransportRequest request) throws IOException {
+        URL url = new URL(request.getUrl());
+        HttpHost host = toHttpHost(url);
+
+        evictIdleConnections();
+        BasicPoolEntry entry = lease(host);
+        requestCount.incrementAndGet();
+
+        boolean released = false;
+        try {
+            HttpClientConnection conn = entry.getConnection();
+            conn.setSocketTimeout(readTimeoutMillis);
+            HttpCoreContext context = HttpCoreContext.create();
+            context.setTargetHost(host);
+
+            HttpRequest httpRequest = buildRequest(request, url);
+            executor.preProcess(httpRequest, processor, context);
+            HttpResponse httpResponse = executor.execute(httpRequest, conn, context);
+            executor.postProcess(httpResponse, processor, context);
+
+            Response ret = new Response();
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            ret.setStatusCode(statusCode);
+            ret.setResponseHeaders(toHeaderMap(httpResponse.getAllHeaders()));
+            if (statusCode >= 400) {
+                // same behaviour as HttpURLConnection
+                ret.setFailure(new IOException("Server returned HTTP response code: " + statusCode + " for URL: "
+                        + request.getUrl()));
+            }
+
+            boolean keepAlive = reuseStrategy.keepAlive(httpResponse, context);
+            HttpEntity entity = httpResponse.getEntity();
+            if (entity == null) {
+                release(entry, keepAlive);
+            } else {
+                ret.setResponseStream(new PooledEntryInputStream(entity.getContent(), entry, keepAlive));
+            }
+            released = true;
+
+            return ret;
+        } catch (HttpException e) {
+            throw new IOException("HTTP protocol violation", e);
+        } finally {
+            if (!released) {
+                release(entry, false);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            pool.shutdown();
+        } catch (IOException e) { // NOPMD
+            // ignore; connections are closed anyway
+        }
+    }
+
+    private BasicPoolEntry lease(HttpHost host) throws IOException {
+        try {
+            return pool.lease(host, null).get(leaseTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a pooled connection");
+        } catch (TimeoutException e) {
+            throw new IOException("Timeout waiting for a pooled connection to " + host);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not open connection to " + host, e.getCause());
+        }
+    }
+
+    private void release(BasicPoolEntry entry, boolean reusable) {
+        if (reusable) {
+            entry.updateExpiry(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        } else {
+            try {
+                entry.getConnection().close();
+            } catch (IOException e) { // NOPMD
+                // ignore; connection is discarded anyway
+            }
+        }
+        pool.release(entry, reusable);
+    }
+
+    private static HttpRequest buildRequest(HttpTransportRequest request, URL url) {
+        String uri = url.getFile();
+        if (uri == null || uri.isEmpty()) {
+            uri = "/";
+        }
+
+        HttpRequest httpRequest;
+        if (request.hasBody()) {
+            BasicHttpEntityEnclosingRequest enclosingRequest = new BasicHttpEntityEnclosingRequest(request.getMethod(), uri);
+            RequestBodyEntity entity = new RequestBodyEntity(request.getBody());
+            String contentType = request.getHeaders().get("Content-Type");
+            if (contentType != null) {
+                entity.setContentType(contentType);
+            }
+            enclosingRequest.setEntity(entity);
+            httpRequest = enclosingRequest;
+        } else {
+            httpRequest = new BasicHttpRequest(request.getMethod(), uri);
+        }
+
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            String name = header.getKey();
+            // these are maintained by the protocol processor
+            if (!"Content-Type".equalsIgnoreCase(name) && !"Content-Length".equalsIgnoreCase(name)
+                    && !"Transfer-Encoding".equalsIgnoreCase(name) && !"Host".equalsIgnoreCase(name)) {
+                httpRequest.addHeader(name, header.getValue());
+            }
+        }
+
+        return httpRequest;
+    }
+
+    private static Map<String, List<String>> toHeaderMap(Header[] headers) {
+        Map<String, List<String>> result = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (Header header : headers) {
+            List<String> values = result.get(header.getName());
+            if (values == null) {
+                values = new ArrayList<String>();
+                result.put(header.getName(), values);
+            }
+            values.add(header.getValue());
+        }
+        return result;
+    }
+
+    private static HttpHost toHttpHost(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return new HttpHost(url.getHost(), port, url.getProtocol());
+    }
+
+    /**
+     * Response stream which returns the connection to the pool when closed.
+     */
+    private final class PooledEntryInputStream extends FilterInputStream {
+
+        private final BasicPoolEntry entry;
+
+        private final boolean keepAlive;
+
+        private boolean eof;
+
+        private boolean closed;
+
+        private PooledEntryInputStream(InputStream in, BasicPoolEntry entry, boolean keepAlive) {
+            super(in);
+            this.entry = entry;
+            this.keepAlive = keepAlive;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            eof = b == -1;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            eof = read == -1;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // only fully consumed responses leave the connection in a reusable state
+            release(entry, keepAlive && eof);
+        }
+
+    }
+
+    /**
+     * Adapts a {@link RequestBody} to HttpCore. Bodies of unknown length are sent chunked.
+     */
+    private static final class RequestBodyEntity extends AbstractHttpEntity {
+
+        private final RequestBody body;
+
+        private RequestBodyEntity(RequestBody body) {
+            this.body = body;
+            setChunked(body.getContentLength() < 0);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return body.isRepeatable();
+        }
+
+        @Override
+        public long getContentLength() {
+            return body.getContentLength();
+        }
+
+        @Override
+        public InputStream getContent() {
+            throw new UnsupportedOperationException("Request bodies can only be written");
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            body.writeTo(outstream);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+
+    }
+
+    private final class MeteredConnPool extends BasicConnPool {
+
+        private MeteredConnPool(ConnFactory<HttpHost, HttpClientConnection> connFactory) {
+            super(connFactory);
+        }
+
+        @Override
+        protected void onReuse(BasicPoolEntry entry) {
+            reusedCount.incrementAndGet();
+        }
+
+    }
+
+    private final class MeteredConnFactory implements ConnFactory<HttpHost, HttpClientConnection> {
+
+        private final SSLSocketFactory sslFactory;
+
+        private MeteredConnFactory(SSLSocketFactory sslFactory) {
+            this.sslFactory = sslFactory;
+        }
+
+        @Override
+        public HttpClientConnection create(HttpHost route) throws IOException {
+            // timeouts may have been changed since the last connection has been created
+            SocketConfig socketConfig = SocketConfig.custom().setSoTimeout(readTimeoutMillis).build();
+            HttpClientConnection conn = new BasicConnFactory(null, sslFactory, connectTimeoutMillis, socketConfig,
+                    ConnectionConfig.DEFAULT).create(route);
+            createdCount.incrementAndGet();
+            return conn;
+        }
+
+    }
+
+    /**
+     * Enables host name verification for all created SSL sockets, as the raw socket factory does not verify the server name
+     * against its certificate.
+     */
+    private static final class EndpointIdentifyingSSLSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory delegate;
+
+        private EndpointIdentifyingSSLSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return configure(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            return configure(delegate.createSocket(s, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return configure(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return configure(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private static Socket configure(Socket socket) {
+            if (socket instanceof SSLSocket) {
+                SSLSocket sslSocket = (SSLSocket) socket;
+                SSLParameters params = sslSocket.getSSLParameters();
+                params.setEndpointIdentificationAlgorithm("HTTPS");
+                sslSocket.setSSLParameters(params);
+            }
+            return socket;
+        }
+
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Options for entity queries, see {@link HpAlmSession#queryEntities(String, String, QueryOptions)}. All setters return this
+ * object, so options can be chained:
+ *
+ * <pre>
+ * session.queryEntities("run", "cycle-id[4711]", new QueryOptions().setPrefetchDepth(2));
+ * </pre>
+ */
+public class QueryOptions {
+
+    private String[] fields;
+
+    private String orderBy;
+
+    private boolean keysetPagination;
+
+    private int pageSize;
+
+    private AdaptivePageSizer adaptivePageSizer;
+
+    private int prefetchDepth;
+
+    // 0 if not set
+    private int parallelism;
+
+    private boolean ordered = true;
+
+    private Executor executor;
+
+    /**
+     * @return the names of the fields to retrieve, or <code>null</code> to retrieve all fields
+     */
+    public String[] getFields() {
+        return fields == null ? null : fields.clone();
+    }
+
+    /**
+     * Restricts the fields returned for each entity to the given ones (HP ALM <code>fields</code> parameter). Retrieving only
+     * the fields which are actually read reduces response size and parsing time considerably, as entities usually have many
+     * fields. Note that HP ALM always returns the <code>id</code> field.
+     *
+     * @param fields Names of the fields to retrieve, or none (the default) to retrieve all fields.
+     * @return This object.
+     */
+    public QueryOptions setFields(String... fields) {
+        this.fields = fields == null || fields.length == 0 ? null : fields.clone();
+        return this;
+    }
+
+    /**
+     * @return the sort order of the result, or <code>null</code> for the default order of the server
+     */
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    /**
+     * Sets the sort order of the result (HP ALM <code>order-by</code> parameter), e.g. <code>name[ASC]; id[DESC]</code>.
+     *
+     * @param orderBy Sort order expression, without enclosing braces, or <code>null</code> for the default order.
+     * @return This object.
+     */
+    public QueryOptions setOrderBy(String orderBy) {
+        this.orderBy = orderBy;
+        return this;
+    }
+
+    /**
+     * @return <code>true</code> if pages are retrieved by ID instead of by offset
+     */
+    public boolean isKeysetPagination() {
+        return keysetPagination;
+    }
+
+    /**
+     * Retrieves the pages of the result ordered by ID, and queries each following page with a filter on IDs greater than
+     * the last ID received (<code>id[&gt; lastId]</code>), instead of using the <code>start-index</code> offset. The server
+     * cost of a page then does not grow with its position, and entities inserted or deleted during iteration do not cause
+     * duplicates or gaps. Recommended for full scans of large tables. <br>
+     * Keyset pagination cannot be combined with {@link #setOrderBy(String)}, and the query must not filter on the ID field.
+     * As each page depends on the previous one, pages are always retrieved sequentially, ignoring prefetch and parallelism
+     * settings.
+     *
+     * @param keysetPagination <code>true</code> to page by ID, <code>false</code> (the default) to page by offset.
+     * @return This object.
+     */
+    public QueryOptions setKeysetPagination(boolean keysetPagination) {
+        this.keysetPagination = keysetPagination;
+        return this;
+    }
+
+    /**
+     * @return the count of entities per result page, or 0 to use the default page size of the session
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Sets the count of entities per result page. Larger pages need less round trips for large results. Note that HP ALM
+     * limits the page size on the server side (usually to 2000).
+     *
+     * @param pageSize Count of entities per page, or 0 (the default) to use the default page size of the session.
+     * @return This object.
+     */
+    public QueryOptions setPageSize(int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("Page size must not be negative");
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * @return the sizer adapting the page size while iterating, or <code>null</code>
+     */
+    public AdaptivePageSizer getAdaptivePageSizer() {
+        return adaptivePageSizer;
+    }
+
+    /**
+     * Lets the given sizer choose the size of each page, based on the response time and size of the previous pages. Takes
+     * precedence over {@link #setPageSize(int)}. As the page offsets of parallel and prefetched pages must be known in
+     * advance, the sizer only determines the size of the first page for these modes.
+     *
+     * @param adaptivePageSizer the sizer, or <code>null</code> to use a fixed page size
+     * @return This object.
+     */
+    public QueryOptions setAdaptivePageSizer(AdaptivePageSizer adaptivePageSizer) {
+        this.adaptivePageSizer = adaptivePageSizer;
+        return this;
+    }
+
+    /**
+     * @return the count of pages requested in advance while iterating over the result
+     */
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Sets the count of pages to request in the background while iterating over the result. As soon as iteration over a page
+     * starts, the following pages up to this depth are requested, so processing of a page overlaps with fetching the next
+     * ones. 0 (the default) fetches each page only when it is needed.
+     *
+     * @param prefetchDepth Count of pages to request in advance.
+     * @return This object.
+     */
+    public QueryOptions setPrefetchDepth(int prefetchDepth) {
+        if (prefetchDepth < 0) {
+            throw new IllegalArgumentException("Prefetch depth must not be negative");
+        }
+        this.prefetchDepth = prefetchDepth;
+        return this;
+    }
+
+    /**
+     * @return the maximum count of pages fetched concurrently, or 0 if not set
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the count of pages to fetch concurrently. If greater than 1, the remaining pages are requested in the background as
+     * soon as iteration starts, using at most this count of concurrent requests, and are buffered until they are consumed.
+     * This speeds up large exports considerably, at the cost of memory for up to twice this count of pages. Takes precedence
+     * over {@link #setPrefetchDepth(int)}. 1 requests one page at a time. If not set, query pages are not fetched in parallel,
+     * and ID lookups use {@link HpAlmSession#DEFAULT_LOOKUP_PARALLELISM}.
+     *
+     * @param parallelism Maximum count of concurrent page requests.
+     * @return This object.
+     */
+    public QueryOptions setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @return <code>true</code> if the entities are returned in the order of the query result
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * @param ordered <code>true</code> (the default) to return parallel fetched entities in the order of the query result,
+     *                <code>false</code> to return each page as soon as it has been received
+     * @return This object.
+     */
+    public QueryOptions setOrdered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * @return the executor for background requests, or <code>null</code> to use the default executor of the session
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor the executor for background requests, or <code>null</code> to use the default executor of the session
+     * @return This object.
+     */
+    public QueryOptions setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.io.IOException;
+
+/**
+ * Handler which is called by a {@link RestConnector} when the server rejects a request with HTTP status 401, e.g. because the
+ * HP ALM session has expired. If the handler could authenticate again, the rejected request is retried once.
+ */
+public interface ReauthenticationHandler {
+
+    /**
+     * Authenticates the given connector again. Implementations must be thread-safe; when multiple requests are rejected at
+     * the same time, only one new login should be performed.
+     *
+     * @param connector       Connector whose request has been rejected.
+     * @param rejectedCookies Value of the Cookie header of the rejected request. If the current cookies of the connector
+     *                        differ from this value, another thread has already authenticated again.
+     * @return <code>true</code> if the rejected request should be retried, <code>false</code> otherwise.
+     * @throws IOException If any I/O error occurs.
+     */
+    public boolean reauthenticate(RestConnector connector, String rejectedCookies) throws IOException;
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The body of an HTTP request. Bodies are written directly to the connection, so large bodies, e.g. attachments, never have
+ * to be held in memory completely. <br>
+ * If the length of a body is known, it is sent with a fixed <code>Content-Length</code>; otherwise, chunked transfer encoding
+ * is used.
+ */
+public abstract class RequestBody {
+
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * @return The length of this body in bytes, or -1 if the length is unknown.
+     */
+    public abstract long getContentLength();
+
+    /**
+     * Writes this body to the given stream. The stream is not closed.
+     *
+     * @param out Stream to write the body to.
+     * @throws IOException If the body could not be read or written.
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * @return <code>true</code> if this body can be written more than once, e.g. when a request is retried.
+     */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * @return The data of this body if it is held in memory, <code>null</code> otherwise.
+     */
+    byte[] getBytes() {
+        return null;
+    }
+
+    /**
+     * Creates a body from the given data.
+     *
+     * @param data Data of the body.
+     * @return The new body.
+     */
+    public static RequestBody create(byte[] data) {
+        return new ByteArrayBody(data);
+    }
+
+    /**
+     * Creates a body reading from the given stream. The stream is read once and is not closed.
+     *
+     * @param in     Stream to read the body data from.
+     * @param length Count of bytes to read from the stream, or -1 to read until the end of the stream.
+     * @return The new body.
+     */
+    public static RequestBody create(InputStream in, long length) {
+        return new InputStreamBody(in, length);
+    }
+
+    /**
+     * Creates a body reading the contents of the given file.
+     *
+     * @param file File to send.
+     * @return The new body.
+     */
+    public static RequestBody create(File file) {
+        return new FileBody(file);
+    }
+
+    /**
+     * Creates a body reading the given file channel from its current position up to its end. The channel is not closed.
+     *
+     * @param channel Channel to read the body data from.
+     * @return The new body.
+     * @throws IOException If the size or position of the channel could not be determined.
+     */
+    public static RequestBody create(FileChannel channel) throws IOException {
+        return new FileChannelBody(channel, channel.position(), channel.size() - channel.position());
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long remaining = length;
+        while (remaining != 0) {
+            int toRead = remaining < 0 ? buf.length : (int) Math.min(buf.length, remaining);
+            int read = in.read(buf, 0, toRead);
+            if (read == -1) {
+                if (remaining > 0) {
+                    throw new IOException("Premature end of request body data, " + remaining + " bytes missing");
+                }
+                return;
+            }
+            out.write(buf, 0, read);
+            if (remaining > 0) {
+                remaining -= read;
+            }
+        }
+    }
+
+    private static final class ByteArrayBody extends RequestBody {
+
+        private final byte[] data;
+
+        private ByteArrayBody(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public long getContentLength() {
+            return data.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(data);
+        }
+
+        @Override
+        byte[] getBytes() {
+            return data;
+        }
+
+    }
+
+    private static final class InputStreamBody extends RequestBody {
+
+        private final InputStream in;
+
+        private final long length;
+
+        private InputStreamBody(InputStream in, long length) {
+            this.in = in;
+            this.length = length;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            copy(in, out, length);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+    }
+
+    private static final class FileBody extends RequestBody {
+
+        private final File file;
+
+        private final long length;
+
+        private FileBody(File file) {
+            this.file = file;
+            this.length = file.length();
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                copy(in, out, length);
+            } finally {
+                in.close();
+            }
+        }
+
+    }
+
+    private static final class FileChannelBody extends RequestBody {
+
+        private final FileChannel channel;
+
+        private final long position;
+
+        private final long length;
+
+        private FileChannelBody(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.length = length;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            long pos = position;
+            long end = position + length;
+            while (pos < end) {
+                buf.clear();
+                if (end - pos < buf.capacity()) {
+                    buf.limit((int) (end - pos));
+                }
+                int read = channel.read(buf, pos);
+                if (read == -1) {
+                    throw new IOException("Premature end of file channel, " + (end - pos) + " bytes missing");
+                }
+                out.write(buf.array(), 0, read);
+                pos += read;
+            }
+        }
+
+    }
+
+}
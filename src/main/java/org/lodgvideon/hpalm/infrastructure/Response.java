@@ -15,6 +15,7 @@
  */
 package org.lodgvideon.hpalm.infrastructure;
 
+import java.io.InputStream;
 import java.util.Map;
 
 /**
@@ -25,6 +26,7 @@ public class Response {
 
     private Map<String, ? extends Iterable<String>> responseHeaders = null;
     private byte[] responseData = null;
+    private InputStream responseStream = null;
     private Exception failure = null;
     private int statusCode = 0;
 
@@ -67,6 +69,22 @@ public class Response {
         this.responseData = responseData;
     }
 
+    /**
+     * @return the still open stream of the response body, if the response was requested as a stream and the request did not
+     * fail. In this case, {@link #getResponseData()} returns <code>null</code>, and the caller is responsible for closing the
+     * stream.
+     */
+    public InputStream getResponseStream() {
+        return responseStream;
+    }
+
+    /**
+     * @param responseStream the responseStream to set
+     */
+    public void setResponseStream(InputStream responseStream) {
+        this.responseStream = responseStream;
+    }
+
     /**
      * @return the failure if the access to the requested URL failed, such as a 404 or 500. If no such failure occured this method
      * returns null.
@@ -102,7 +120,7 @@ public class Response {
     @Override
     public String toString() {
 
-        return new String(this.responseData);
+        return responseData == null ? "" : new String(this.responseData);
     }
 
 }
\ No newline at end of file
@@ -15,27 +15,38 @@
  */
 package org.lodgvideon.hpalm.infrastructure;
 
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class keeps the state of the connection for the examples. This class is a thus sharing state singleton. All examples get
  * the instance in their default constructors - (cookies, server url).
  * <p>
  * Some simple methods are implemented to get commonly used paths.
+ * <p>
+ * Instances are safe for concurrent use. The cookies are kept in an immutable snapshot which is replaced atomically whenever
+ * the server sets a cookie, so requests never observe a partially updated cookie jar.
  */
 public class RestConnector {
 
-    protected Map<String, String> cookies;
+    private static final Logger LOG = LoggerFactory.getLogger(RestConnector.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final AtomicReference<CookieJar> cookieJar = new AtomicReference<CookieJar>(CookieJar.EMPTY);
     /**
      * This is the URL to the ALM application. For example: http://myhost:8080/qcbin. Make sure that there is no slash at the end.
      */
@@ -43,15 +54,51 @@ public class RestConnector {
     protected String domain;
     protected String project;
 
+    private final HttpTransport transport;
+
+    private volatile boolean compressionEnabled = true;
+
+    private volatile int requestCompressionThreshold = -1;
+
+    private volatile ReauthenticationHandler reauthenticationHandler;
+
+    private volatile RetryPolicy retryPolicy;
+
+    private volatile CircuitBreaker circuitBreaker;
+
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+
     public RestConnector(Map<String, String> cookies, String serverUrl, String domain, String project) {
-        this.cookies = cookies;
+        this(cookies, serverUrl, domain, project, new UrlConnectionHttpTransport());
+    }
+
+    /**
+     * Creates a new connector which uses the given transport for all HTTP requests.
+     *
+     * @param cookies   initial cookies
+     * @param serverUrl URL to the ALM application, without a trailing slash
+     * @param domain    HP ALM domain
+     * @param project   HP ALM project
+     * @param transport transport to execute the HTTP requests, e.g. a {@link PooledHttpTransport}
+     */
+    public RestConnector(Map<String, String> cookies, String serverUrl, String domain, String project,
+                         HttpTransport transport) {
+        setCookies(cookies);
         this.serverUrl = serverUrl;
         this.domain = domain;
         this.project = project;
+        this.transport = transport;
     }
 
     public String buildEntityCollectionUrl(String entityType) {
-        return buildUrl("rest/domains/" + domain + "/projects/" + project + "/" + entityType + "s");
+        return buildProjectUrl() + "/" + entityType + "s";
+    }
+
+    /**
+     * @return the url of the project on the server, which all entity urls start with
+     */
+    public String buildProjectUrl() {
+        return buildUrl("rest/domains/" + domain + "/projects/" + project);
     }
 
     /**
@@ -63,199 +110,480 @@ public class RestConnector {
     }
 
     /**
-     * @return the cookies
+     * @return an unmodifiable snapshot of the current cookies
      */
     public Map<String, String> getCookies() {
-        return cookies;
+        return cookieJar.get().cookies;
     }
 
     /**
-     * @param cookies the cookies to set
+     * @param cookies the cookies to set, replacing all current cookies. The map is copied.
      */
     public void setCookies(Map<String, String> cookies) {
-        this.cookies = cookies;
+        cookieJar.set(cookies == null || cookies.isEmpty() ? CookieJar.EMPTY : new CookieJar(cookies));
+    }
+
+    /**
+     * Sets a single cookie, keeping all other cookies.
+     *
+     * @param key   name of the cookie
+     * @param value value of the cookie
+     */
+    public void setCookie(String key, String value) {
+        Map<String, String> update = new LinkedHashMap<String, String>();
+        update.put(key, value);
+        mergeCookies(update);
+    }
+
+    /**
+     * @return the transport used to execute the HTTP requests
+     */
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Releases the resources of the underlying transport. The connector must not be used afterwards.
+     */
+    public void close() {
+        transport.close();
+    }
+
+    /**
+     * @return <code>true</code> if compressed responses are requested from the server, <code>false</code> otherwise
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * @param compressionEnabled if <code>true</code> (the default), gzip or deflate compressed responses are requested from the
+     *                           server and decompressed transparently
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * @return the minimum size of a request body to be gzip compressed, or -1 if request bodies are never compressed
+     */
+    public int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * Enables gzip compression of large request bodies. This is disabled by default, as not all server installations accept
+     * compressed request bodies.
+     *
+     * @param requestCompressionThreshold the minimum size in bytes of a request body to be gzip compressed, or -1 to disable
+     *                                    request compression
+     */
+    public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    /**
+     * @return the handler called when the server rejects a request with HTTP status 401, or <code>null</code>
+     */
+    public ReauthenticationHandler getReauthenticationHandler() {
+        return reauthenticationHandler;
+    }
+
+    /**
+     * Sets the handler to call when the server rejects a request with HTTP status 401. Requests to the authentication and
+     * session endpoints, and requests with a body which cannot be sent again, are never retried.
+     *
+     * @param reauthenticationHandler the handler, or <code>null</code> to return 401 responses to the caller
+     */
+    public void setReauthenticationHandler(ReauthenticationHandler reauthenticationHandler) {
+        this.reauthenticationHandler = reauthenticationHandler;
+    }
+
+    /**
+     * @return the policy for sending failed requests again, or <code>null</code> if requests are never retried
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy for sending failed requests again. By default, requests are not retried.
+     *
+     * @param retryPolicy the policy for sending failed requests again, or <code>null</code> to never retry requests
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return the circuit breaker guarding the requests of this connector, or <code>null</code>
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets the circuit breaker guarding the requests of this connector. By default, no circuit breaker is used. Pass the same
+     * instance to all connectors talking to the same server to let them fail fast together, see also
+     * {@link HpAlmSessionPool#setCircuitBreaker(CircuitBreaker)}.
+     *
+     * @param circuitBreaker the circuit breaker, or <code>null</code> to disable it
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return the limiter for concurrent requests of this connector, or <code>null</code>
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Sets an adaptive limit for the concurrent requests of this connector. Pass the same instance to all connectors talking
+     * to the same server to limit the overall load. Only the time until the response headers have been received counts
+     * towards the limit for streamed responses.
+     *
+     * @param concurrencyLimiter the limiter, or <code>null</code> (the default) to not limit concurrent requests
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
     }
 
     public Response httpPut(String url, byte[] data, Map<String, String> headers) throws IOException {
 
-        return doHttp("PUT", url, null, data, headers, cookies);
+        return doHttp("PUT", url, null, data == null ? null : RequestBody.create(data), headers, false);
     }
 
     public Response httpPost(String url, byte[] data, Map<String, String> headers) throws IOException {
 
-        return doHttp("POST", url, null, data, headers, cookies);
+        return doHttp("POST", url, null, data == null ? null : RequestBody.create(data), headers, false);
+    }
+
+    /**
+     * Performs a POST request, writing the given body directly to the connection.
+     *
+     * @param url     to work on
+     * @param body    to send, e.g. the contents of a file
+     * @param headers to use in the request
+     * @return http response
+     * @throws IOException
+     */
+    public Response httpPost(String url, RequestBody body, Map<String, String> headers) throws IOException {
+
+        return doHttp("POST", url, null, body, headers, false);
     }
 
     public Response httpDelete(String url, Map<String, String> headers) throws IOException {
 
-        return doHttp("DELETE", url, null, null, headers, cookies);
+        return doHttp("DELETE", url, null, null, headers, false);
     }
 
     public Response httpGet(String url, String queryString, Map<String, String> headers) throws IOException {
 
-        return doHttp("GET", url, queryString, null, headers, cookies);
+        return doHttp("GET", url, queryString, null, headers, false);
+    }
+
+    /**
+     * Performs a GET request, but does not read the response body into memory. If the request succeeds, the body is available
+     * via {@link Response#getResponseStream()}, and the caller must close that stream. Failed requests are buffered as usual.
+     *
+     * @param url         to work on
+     * @param queryString optional query string to append
+     * @param headers     to use in the request
+     * @return http response, with an open response stream on success
+     * @throws IOException
+     */
+    public Response httpGetStream(String url, String queryString, Map<String, String> headers) throws IOException {
+
+        return doHttp("GET", url, queryString, null, headers, true);
     }
 
     /**
      * @param type        http operation: get post put delete
      * @param url         to work on
      * @param queryString
-     * @param data        to write, if a writable operation
+     * @param body        to write, if a writable operation
      * @param headers     to use in the request
-     * @param cookies     to use in the request and update from the response
+     * @param stream      if <code>true</code>, a successful response body is not read, but returned as open stream
      * @return http response
      * @throws Exception
      */
-    private Response doHttp(String type, String url, String queryString, byte[] data, Map<String, String> headers,
-                            Map<String, String> cookies) throws IOException {
+    private Response doHttp(String type, String url, String queryString, RequestBody body, Map<String, String> headers,
+                            boolean stream) throws IOException {
 
         // copy headers to not modify them
-        headers = new HashMap<String, String>(headers);
+        headers = new LinkedHashMap<String, String>(headers);
 
         if (queryString != null && !queryString.isEmpty()) {
 
             url += "?" + queryString;
         }
 
-        HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
+        // the content-type header should only be sent if there is any content to send
+        if (body == null || body.getContentLength() == 0) {
+            headers.remove("Content-Type");
+        } else if (requestCompressionThreshold >= 0 && body.getBytes() != null
+                && body.getContentLength() >= requestCompressionThreshold) {
+            body = RequestBody.create(HttpCompression.gzip(body.getBytes()));
+            headers.put("Content-Encoding", "gzip");
+        }
+
+        if (compressionEnabled && !headers.containsKey("Accept-Encoding")) {
+            headers.put("Accept-Encoding", HttpCompression.ACCEPT_ENCODING);
+        }
 
-        con.setRequestMethod(type);
         String cookieString = getCookieString();
+        Response ret = executeWithRetry(type, url, headers, body, cookieString, stream);
+
+        // session may have expired; authenticate again and retry once
+        ReauthenticationHandler handler = reauthenticationHandler;
+        if (ret.getStatusCode() == HttpURLConnection.HTTP_UNAUTHORIZED && handler != null
+                && (body == null || body.isRepeatable()) && !isAuthenticationUrl(url)
+                && handler.reauthenticate(this, cookieString)) {
+            ret = executeWithRetry(type, url, headers, body, getCookieString(), stream);
+        }
 
-        prepareHttpRequest(con, headers, data, cookieString);
-        con.connect();
-        Response ret = retrieveHtmlResponse(con);
+        return ret;
+    }
 
-        updateCookies(ret);
+    private Response executeWithRetry(String type, String url, Map<String, String> headers, RequestBody body,
+                                      String cookieString, boolean stream) throws IOException {
+
+        RetryPolicy policy = retryPolicy;
+        CircuitBreaker breaker = circuitBreaker;
+        boolean repeatable = body == null || body.isRepeatable();
+
+        for (int attempt = 1; ; attempt++) {
+            ConcurrencyLimiter limiter = concurrencyLimiter;
+            long permit = limiter != null ? limiter.acquire() : 0;
+
+            if (breaker != null) {
+                try {
+                    breaker.acquirePermission();
+                } catch (CircuitBreakerOpenException e) {
+                    if (limiter != null) {
+                        limiter.cancel(permit);
+                    }
+                    throw e;
+                }
+            }
 
-        return ret;
+            Response ret;
+            try {
+                ret = execute(type, url, headers, body, cookieString, stream);
+            } catch (IOException e) {
+                if (limiter != null) {
+                    limiter.release(permit, true);
+                }
+                if (breaker != null) {
+                    breaker.recordFailure();
+                }
+                if (policy == null || !repeatable || !policy.shouldRetry(type, e, attempt)) {
+                    throw e;
+                }
+                LOG.debug("Attempt " + attempt + " of " + type + " " + url + " failed, retrying", e);
+                sleep(policy.getDelayMillis(attempt, null));
+                continue;
+            } catch (RuntimeException e) {
+                if (limiter != null) {
+                    limiter.cancel(permit);
+                }
+                if (breaker != null) {
+                    breaker.recordFailure();
+                }
+                throw e;
+            }
+
+            boolean unavailable = RetryPolicy.isServerUnavailable(ret.getStatusCode());
+            if (limiter != null) {
+                limiter.release(permit, unavailable || ret.getStatusCode() == 429);
+            }
+            if (breaker != null) {
+                if (unavailable) {
+                    breaker.recordFailure();
+                } else {
+                    breaker.recordSuccess();
+                }
+            }
+
+            if (!unavailable || policy == null || !repeatable || !policy.shouldRetry(type, ret.getStatusCode(), attempt)) {
+                return ret;
+            }
+            LOG.debug("Attempt " + attempt + " of " + type + " " + url + " returned HTTP " + ret.getStatusCode() + ", retrying");
+            sleep(policy.getDelayMillis(attempt, getHeaderValue(ret, "Retry-After")));
+        }
     }
 
-    /**
-     * @param con          connection to set the headers and bytes in
-     * @param headers      to use in the request, such as content-type
-     * @param bytes        the actual data to post in the connection.
-     * @param cookieString the cookies data from clientside, such as lwsso, qcsession, jsession etc.
-     * @throws IOException
-     */
-    private void prepareHttpRequest(HttpURLConnection con, Map<String, String> headers, byte[] bytes, String cookieString)
-            throws IOException {
+    private static void sleep(long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry request");
+        }
+    }
 
-        String contentType = null;
+    private Response execute(String type, String url, Map<String, String> headers, RequestBody body, String cookieString,
+                             boolean stream) throws IOException {
 
         // attach cookie information if such exists
         if (cookieString != null && !cookieString.isEmpty()) {
-
-            con.setRequestProperty("Cookie", cookieString);
+            headers = new LinkedHashMap<String, String>(headers);
+            headers.put("Cookie", cookieString);
         }
 
-        // send data from headers
-        if (headers != null) {
+        Response ret = transport.execute(new HttpTransportRequest(type, url, headers, body));
 
-            // Skip the content-type header - should only be sent
-            // if you actually have any content to send. see below.
-            contentType = headers.remove("Content-Type");
-
-            Iterator<Entry<String, String>> headersIterator = headers.entrySet().iterator();
-            while (headersIterator.hasNext()) {
-                Entry<String, String> header = headersIterator.next();
-                con.setRequestProperty(header.getKey(), header.getValue());
-            }
+        try {
+            ret.setResponseStream(HttpCompression.decode(ret.getResponseStream(), getHeaderValue(ret, "Content-Encoding")));
+        } catch (IOException e) {
+            IOUtils.closeQuietly(ret.getResponseStream());
+            throw e;
         }
 
-        // If there's data to attach to the request, it's handled here.
-        // Note that if data exists, we take into account previously removed
-        // content-type.
-        if (bytes != null && bytes.length > 0) {
+        if (!stream || ret.getFailure() != null) {
+            retrieveResponseData(ret);
+        }
 
-            con.setDoOutput(true);
+        updateCookies(ret);
 
-            // warning: if you add content-type header then you MUST send
-            // information or receive error.
-            // so only do so if you're writing information...
-            if (contentType != null) {
-                con.setRequestProperty("Content-Type", contentType);
-            }
+        return ret;
+    }
 
-            OutputStream out = con.getOutputStream();
-            out.write(bytes);
-            out.flush();
-            out.close();
-        }
+    private static boolean isAuthenticationUrl(String url) {
+        return url.contains("/authentication-point/") || url.contains("/rest/is-authenticated")
+                || url.contains("/rest/site-session");
     }
 
     /**
-     * @param con that is already connected to its url with an http request, and that should contain a response for us to retrieve
-     * @return a response from the server to the previously submitted http request
-     * @throws Exception
+     * Reads the response stream of the given response completely and stores the data inside the response.
+     *
+     * @param response response with an open response stream, which is closed by this method
+     * @throws IOException
      */
-    private Response retrieveHtmlResponse(HttpURLConnection con) throws IOException {
-
-        Response ret = new Response();
+    private void retrieveResponseData(Response response) throws IOException {
 
-        ret.setStatusCode(con.getResponseCode());
-        ret.setResponseHeaders(con.getHeaderFields());
+        InputStream inputStream = response.getResponseStream();
+        response.setResponseStream(null);
 
-        InputStream inputStream;
-        // select the source of the input bytes, first try 'regular' input
-        try {
-            inputStream = con.getInputStream();
-        }
-
-		/*If the connection to the server somehow failed, for example 404 or 500, con.getInputStream() will throw an exception,
-         * which we'll keep. We'll also store the body of the exception page, in the response data. */ catch (IOException e) {
-            inputStream = con.getErrorStream();
-            ret.setFailure(e);
-        }
-
-        // This actually takes the data from the previously set stream
-        // (error or input) and stores it in a byte[] inside the response
+        // This actually takes the data from the stream (error or input) and stores it in a byte[] inside the response
         ByteArrayOutputStream container = new ByteArrayOutputStream();
 
-        byte[] buf = new byte[1024];
-        int read;
-        while (inputStream != null && (read = inputStream.read(buf, 0, 1024)) > 0) {
-            container.write(buf, 0, read);
+        if (inputStream != null) {
+            try {
+                byte[] buf = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buf, 0, BUFFER_SIZE)) > 0) {
+                    container.write(buf, 0, read);
+                }
+            } finally {
+                inputStream.close();
+            }
         }
 
-        ret.setResponseData(container.toByteArray());
+        response.setResponseData(container.toByteArray());
+    }
 
-        return ret;
+    private static String getHeaderValue(Response response, String header) {
+        Map<String, ? extends Iterable<String>> headers = response.getResponseHeaders();
+        if (headers != null) {
+            for (Entry<String, ? extends Iterable<String>> entry : headers.entrySet()) {
+                if (header.equalsIgnoreCase(entry.getKey()) && entry.getValue() != null) {
+                    Iterator<String> values = entry.getValue().iterator();
+                    if (values.hasNext()) {
+                        return values.next();
+                    }
+                }
+            }
+        }
+        return null;
     }
 
     private void updateCookies(Response response) {
 
-        Iterable<String> newCookies = response.getResponseHeaders().get("Set-Cookie");
+        Map<String, ? extends Iterable<String>> headers = response.getResponseHeaders();
+        Iterable<String> newCookies = headers == null ? null : headers.get("Set-Cookie");
         if (newCookies != null) {
 
+            Map<String, String> update = new LinkedHashMap<String, String>();
             for (String cookie : newCookies) {
                 int equalIndex = cookie.indexOf('=');
-                int semicolonIndex = cookie.indexOf(';');
+                if (equalIndex <= 0) {
+                    continue;
+                }
+                int semicolonIndex = cookie.indexOf(';', equalIndex);
+                if (semicolonIndex < 0) {
+                    semicolonIndex = cookie.length();
+                }
+
+                update.put(cookie.substring(0, equalIndex).trim(), cookie.substring(equalIndex + 1, semicolonIndex));
+            }
+            mergeCookies(update);
+        }
+    }
 
-                String cookieKey = cookie.substring(0, equalIndex);
-                String cookieValue = cookie.substring(equalIndex + 1, semicolonIndex);
+    private void mergeCookies(Map<String, String> update) {
 
-                cookies.put(cookieKey, cookieValue);
-            }
+        if (update.isEmpty()) {
+            return;
         }
+
+        CookieJar current;
+        CookieJar next;
+        do {
+            current = cookieJar.get();
+            if (current.containsAll(update)) {
+                // nothing changed, keep the cached header
+                return;
+            }
+            Map<String, String> merged = new LinkedHashMap<String, String>(current.cookies);
+            merged.putAll(update);
+            next = new CookieJar(merged);
+        } while (!cookieJar.compareAndSet(current, next));
     }
 
+    /**
+     * @return the value for the Cookie header of a request, or an empty string if there are no cookies
+     */
     public String getCookieString() {
+        return cookieJar.get().headerValue;
+    }
 
-        StringBuilder sb = new StringBuilder();
+    /**
+     * Immutable set of cookies, together with the rendered Cookie header value.
+     */
+    private static final class CookieJar {
+
+        static final CookieJar EMPTY = new CookieJar(Collections.<String, String> emptyMap());
+
+        final Map<String, String> cookies;
+
+        final String headerValue;
 
-        if (!cookies.isEmpty()) {
+        CookieJar(Map<String, String> cookies) {
+            this.cookies = Collections.unmodifiableMap(new LinkedHashMap<String, String>(cookies));
 
-            Set<Entry<String, String>> cookieEntries = cookies.entrySet();
-            for (Entry<String, String> entry : cookieEntries) {
+            StringBuilder sb = new StringBuilder();
+            for (Entry<String, String> entry : this.cookies.entrySet()) {
                 sb.append(entry.getKey()).append("=").append(entry.getValue()).append(";");
             }
+            this.headerValue = sb.toString();
         }
 
-        String ret = sb.toString();
-
-        return ret;
+        boolean containsAll(Map<String, String> update) {
+            for (Entry<String, String> entry : update.entrySet()) {
+                String value = cookies.get(entry.getKey());
+                if (value == null ? entry.getValue() != null : !value.equals(entry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
 }
-
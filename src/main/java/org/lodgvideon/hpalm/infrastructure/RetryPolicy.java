@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/**
+ * Policy deciding whether a failed request is sent again by a {@link RestConnector}, and how long to wait before.
+ * <p>
+ * Requests with a method which can safely be repeated (GET, HEAD, PUT, OPTIONS) are retried on I/O errors, e.g. read
+ * timeouts, and on the status codes 502, 503 and 504. Other requests, e.g. POST and DELETE, are only retried if the
+ * connection could not be established, or the server answered 503, as the server has not processed the request in these
+ * cases. DELETE is idempotent, but HP ALM answers a repeated DELETE of an already deleted entity with an error, so it is not
+ * repeated after the server may have processed it. Requests with a body which cannot be sent again are never retried.
+ * <p>
+ * The delay between attempts grows exponentially, and is randomized ("full jitter") to avoid that many clients retry at the
+ * same time. A <code>Retry-After</code> header sent by the server is respected, up to the maximum delay.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 200;
+
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+
+    private static final Random RANDOM = new Random();
+
+    private final int maxAttempts;
+
+    private final long initialDelayMillis;
+
+    private final long maxDelayMillis;
+
+    /**
+     * Creates a new retry policy with default settings.
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * Creates a new retry policy.
+     *
+     * @param maxAttempts        Maximum count of attempts for a request, including the first one. 1 disables retries.
+     * @param initialDelayMillis Upper bound of the delay before the first retry, in milliseconds. Doubled for each further
+     *                           retry.
+     * @param maxDelayMillis     Maximum delay before any retry, in milliseconds.
+     */
+    public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is required");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialDelayMillis() {
+        return initialDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * @param method  HTTP method of the failed request.
+     * @param error   Error which occurred during the request.
+     * @param attempt Number of the failed attempt, starting with 1.
+     * @return <code>true</code> if the request should be sent again, <code>false</code> otherwise.
+     */
+    public boolean shouldRetry(String method, IOException error, int attempt) {
+        if (attempt >= maxAttempts || error instanceof InterruptedIOException && !isTimeout(error)
+                || error instanceof CircuitBreakerOpenException) {
+            return false;
+        }
+        return isRepeatable(method) || error instanceof ConnectException;
+    }
+
+    /**
+     * @param method     HTTP method of the failed request.
+     * @param statusCode HTTP status code returned by the server.
+     * @param attempt    Number of the failed attempt, starting with 1.
+     * @return <code>true</code> if the request should be sent again, <code>false</code> otherwise.
+     */
+    public boolean shouldRetry(String method, int statusCode, int attempt) {
+        if (attempt >= maxAttempts || !isServerUnavailable(statusCode)) {
+            return false;
+        }
+        return isRepeatable(method) || statusCode == 503;
+    }
+
+    /**
+     * @param attempt           Number of the failed attempt, starting with 1.
+     * @param retryAfterSeconds Value of the <code>Retry-After</code> header of the response, or <code>null</code>.
+     * @return The time to wait before the next attempt, in milliseconds.
+     */
+    public long getDelayMillis(int attempt, String retryAfterSeconds) {
+        long ceiling = initialDelayMillis << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) {
+            ceiling = maxDelayMillis;
+        }
+        long delay = ceiling <= 0 ? 0 : (long) (RANDOM.nextDouble() * ceiling);
+
+        if (retryAfterSeconds != null) {
+            try {
+                long retryAfter = Long.parseLong(retryAfterSeconds.trim()) * 1000;
+                delay = Math.max(delay, Math.min(retryAfter, maxDelayMillis));
+            } catch (NumberFormatException e) {
+                // HTTP date format is not supported; use computed delay
+            }
+        }
+
+        return delay;
+    }
+
+    /**
+     * @param statusCode HTTP status code.
+     * @return <code>true</code> if the status code indicates that the server (or a gateway in front of it) is temporarily
+     * unavailable, i.e. 502, 503 or 504.
+     */
+    public static boolean isServerUnavailable(int statusCode) {
+        return statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    private static boolean isRepeatable(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method) || "OPTIONS".equals(method);
+    }
+
+    private static boolean isTimeout(IOException error) {
+        return error instanceof SocketTimeoutException;
+    }
+
+}
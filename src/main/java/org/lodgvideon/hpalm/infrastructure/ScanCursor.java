@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.lodgvideon.hpalm.entity.Entity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Base64;
+
+/**
+ * Position within a scan over all entities matching a query, see {@link HpAlmSession#scan(ScanCursor)}. A cursor contains
+ * the query, its ordering and the position after the last entity returned, i.e. the count of entities returned so far
+ * (offset pagination) or the last ID returned (keyset pagination). It does not depend on the session or server URL, so a
+ * scan can be resumed with a new session, e.g. after a crash or by a rescheduled job. <br>
+ * Cursors are immutable. They can be persisted with Java serialization, or as a short string using {@link #toToken()} and
+ * {@link #fromToken(String)}. <br>
+ * Offset scans without explicit ordering are ordered by ID, so the position stays valid between sessions. For scans of
+ * tables which are modified during the scan, keyset pagination should be preferred, see
+ * {@link QueryOptions#setKeysetPagination(boolean)}.
+ */
+public final class ScanCursor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int TOKEN_VERSION = 1;
+
+    private final String entityName;
+
+    private final String query;
+
+    private final String orderBy;
+
+    private final String[] fields;
+
+    private final int pageSize;
+
+    private final boolean keyset;
+
+    private final long offset;
+
+    private final long lastId;
+
+    private ScanCursor(String entityName, String query, String orderBy, String[] fields, int pageSize, boolean keyset,
+                       long offset, long lastId) {
+        this.entityName = entityName;
+        this.query = query;
+        this.orderBy = orderBy;
+        this.fields = fields;
+        this.pageSize = pageSize;
+        this.keyset = keyset;
+        this.offset = offset;
+        this.lastId = lastId;
+    }
+
+    /**
+     * Creates a cursor at the start of a scan. Of the given options, the fields, order, page size and keyset pagination
+     * setting are used.
+     *
+     * @param entityName Type name of the entities to scan, e.g. <code>run</code>.
+     * @param query      HP ALM query expression, or <code>null</code> to scan all entities.
+     * @param options    Options for the scan, or <code>null</code> for defaults.
+     * @return A cursor at the start of the scan.
+     */
+    public static ScanCursor start(String entityName, String query, QueryOptions options) {
+        if (options == null) {
+            options = new QueryOptions();
+        }
+        if (options.isKeysetPagination() && options.getOrderBy() != null) {
+            throw new IllegalArgumentException("Keyset pagination requires ordering by ID; order-by must not be set");
+        }
+        return new ScanCursor(entityName, query, options.getOrderBy(), options.getFields(), options.getPageSize(),
+                options.isKeysetPagination(), 0, 0);
+    }
+
+    /**
+     * Returns the cursor positioned after the given entity, which must be the entity following this cursor.
+     *
+     * @param entity Entity returned at this position.
+     * @return The cursor positioned after the entity.
+     */
+    ScanCursor advance(Entity entity) {
+        return new ScanCursor(entityName, query, orderBy, fields, pageSize, keyset, offset + 1, entity.getId());
+    }
+
+    /**
+     * @return options for querying the pages of the scan
+     */
+    QueryOptions toQueryOptions() {
+        return new QueryOptions().setFields(fields).setOrderBy(orderBy).setPageSize(pageSize).setKeysetPagination(keyset);
+    }
+
+    public String getEntityName() {
+        return entityName;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return <code>true</code> if pages are retrieved by ID, <code>false</code> if by offset
+     */
+    public boolean isKeyset() {
+        return keyset;
+    }
+
+    /**
+     * @return the count of entities returned before this position
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the ID of the entity returned last before this position, or 0 at the start of the scan
+     */
+    public long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * Encodes this cursor as a short, URL-safe string.
+     *
+     * @return The token for this cursor.
+     */
+    public String toToken() {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeByte(TOKEN_VERSION);
+            out.writeUTF(entityName);
+            writeNullable(out, query);
+            writeNullable(out, orderBy);
+            out.writeInt(fields == null ? -1 : fields.length);
+            if (fields != null) {
+                for (String field : fields) {
+                    out.writeUTF(field);
+                }
+            }
+            out.writeInt(pageSize);
+            out.writeBoolean(keyset);
+            out.writeLong(offset);
+            out.writeLong(lastId);
+            out.close();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(baos.toByteArray());
+        } catch (IOException e) {
+            // cannot occur for in-memory streams
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes a cursor from a token returned by {@link #toToken()}.
+     *
+     * @param token Token of a cursor.
+     * @return The cursor.
+     * @throws IllegalArgumentException If the token is not a valid cursor token.
+     */
+    public static ScanCursor fromToken(String token) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)));
+            if (in.readByte() != TOKEN_VERSION) {
+                throw new IllegalArgumentException("Unsupported scan cursor token version");
+            }
+            String entityName = in.readUTF();
+            String query = readNullable(in);
+            String orderBy = readNullable(in);
+            int fieldCount = in.readInt();
+            String[] fields = null;
+            if (fieldCount >= 0) {
+                fields = new String[fieldCount];
+                for (int i = 0; i < fieldCount; i++) {
+                    fields[i] = in.readUTF();
+                }
+            }
+            return new ScanCursor(entityName, query, orderBy, fields, in.readInt(), in.readBoolean(), in.readLong(),
+                    in.readLong());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid scan cursor token", e);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanCursor[" + entityName + (query != null ? ", query=" + query : "") + (keyset ? ", lastId=" + lastId
+                : ", offset=" + offset) + "]";
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent identical calls: While a call for a key is in flight, further callers for the same key do not start
+ * their own call, but wait for the result of the running one. Every waiting caller receives its own copy of the result, so
+ * callers can modify their results independently. Results are not cached beyond the end of the call.
+ *
+ * @param <K> Type of the keys identifying identical calls.
+ * @param <V> Type of the results.
+ */
+final class SingleFlight<K, V> {
+
+    /**
+     * A call whose result can be shared.
+     *
+     * @param <V> Type of the result.
+     */
+    interface Call<V> {
+
+        V call() throws IOException, HpAlmException;
+
+    }
+
+    /**
+     * Creates independent copies of results.
+     *
+     * @param <V> Type of the results.
+     */
+    interface Copier<V> {
+
+        V copy(V value);
+
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+    private final Copier<V> copier;
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    SingleFlight(Copier<V> copier) {
+        this.copier = copier;
+    }
+
+    /**
+     * Executes the given call, or waits for the identical call currently in flight.
+     *
+     * @param key  Key identifying identical calls.
+     * @param call Call to execute if no identical call is in flight.
+     * @return The result of the call, or a copy of the result of the identical call.
+     * @throws IOException    If the call failed with an I/O error.
+     * @throws HpAlmException If the call failed with an HP ALM error.
+     */
+    V execute(K key, Call<V> call) throws IOException, HpAlmException {
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            coalescedCount.incrementAndGet();
+            V value = await(running);
+            return value == null ? null : copier.copy(value);
+        }
+
+        try {
+            V value = call.call();
+            // waiters copy the value; complete with a private copy, as the caller may modify its result immediately
+            future.complete(value == null ? null : copier.copy(value));
+            return value;
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } catch (HpAlmException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } catch (Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private V await(CompletableFuture<V> running) throws IOException, HpAlmException {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for identical request");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof HpAlmException) {
+                throw (HpAlmException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Identical request failed", cause);
+        }
+    }
+
+    /**
+     * @return the count of calls which have been served by an identical call in flight
+     */
+    long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.lodgvideon.hpalm.entity.Entity;
+import org.lodgvideon.hpalm.entity.TestSetFolderBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of test set folder paths, used by {@link HpAlmUtil#createTestSetFolderPath(HpAlmSession, String)}. The index is a
+ * trie of folder IDs per project, and is filled while paths are resolved or created, so resolving a known path again only
+ * needs to retrieve the folder itself, using {@link HpAlmSession#getEntity(String, long)}. This request may be served by
+ * the {@link EntityCache} of the session, if any. Folder entities are not kept in the index, so their fields are never
+ * older than the cache allows. <br>
+ * Folders found in the index are validated with one request for the whole path if they have not been validated within the
+ * validation interval; if any of them has been deleted, the path is resolved again from the first deleted folder on. Renamed
+ * or moved folders are not detected until the index is cleared. <br>
+ * Each missing folder is resolved or created by one thread at a time, while other threads resolving the same folder wait
+ * for its result, so concurrent resolution of the same path never creates duplicate folders within this process. Folders of
+ * different names are resolved concurrently. If creation fails because another client created the folder in the meantime,
+ * the folder of the other client is used. Instances are thread-safe.
+ */
+public class TestSetFolderIndex {
+
+    public static final long DEFAULT_VALIDATION_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final String FOLDER_TYPE = "test-set-folder";
+
+    private final ConcurrentMap<String, Node> projects = new ConcurrentHashMap<String, Node>();
+
+    private volatile long validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_VALIDATION_INTERVAL_MILLIS);
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @return the index shared by all users of this class loader
+     */
+    public static TestSetFolderIndex getShared() {
+        return SharedIndexHolder.INSTANCE;
+    }
+
+    /**
+     * Sets the time after which folders found in the index are validated against the server again. 0 validates on each
+     * resolution (one request per path), {@link Long#MAX_VALUE} never validates.
+     *
+     * @param validationInterval the validation interval
+     * @param unit               unit of the validation interval
+     */
+    public void setValidationInterval(long validationInterval, TimeUnit unit) {
+        if (validationInterval < 0) {
+            throw new IllegalArgumentException("Validation interval must not be negative");
+        }
+        this.validationIntervalNanos = unit.toNanos(validationInterval);
+    }
+
+    /**
+     * @return the count of path segments resolved from the index
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the count of path segments resolved or created using the server
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Removes all paths of all projects from the index.
+     */
+    public void clear() {
+        projects.clear();
+    }
+
+    /**
+     * Returns the folder at the given path, creating missing folders. The root folder (first segment) must exist.
+     *
+     * @param session      HP ALM session to use for queries and creation.
+     * @param pathSegments Names of the folders of the path, starting with the root folder.
+     * @return The folder at the path.
+     * @throws IOException    If any I/O error occurs.
+     * @throws HpAlmException If HP ALM reports any error, or the root folder does not exist.
+     */
+    public Entity createOrGetFolder(HpAlmSession session, String[] pathSegments) throws IOException, HpAlmException {
+        String scope = session.getConnector().buildProjectUrl();
+        Node project = projects.get(scope);
+        if (project == null) {
+            Node existing = projects.putIfAbsent(scope, project = new Node(0));
+            if (existing != null) {
+                project = existing;
+            }
+        }
+
+        // longest known prefix of the path
+        List<Node> known = new ArrayList<Node>();
+        Node node = project;
+        while (known.size() < pathSegments.length) {
+            Node child = node.children.get(pathSegments[known.size()]);
+            if (child == null) {
+                break;
+            }
+            known.add(child);
+            node = child;
+        }
+
+        int missing = known.isEmpty() ? -1 : validate(session, known);
+        if (missing >= 0) {
+            // forget the first deleted folder and its sub folders, but keep the valid prefix
+            Node parent = missing == 0 ? project : known.get(missing - 1);
+            parent.children.remove(pathSegments[missing], known.get(missing));
+            known.subList(missing, known.size()).clear();
+            node = parent;
+        }
+        hitCount.addAndGet(known.size());
+
+        // complete folder, if the last segment is resolved using the server
+        Entity folder = null;
+        for (int i = known.size(); i < pathSegments.length; i++) {
+            boolean last = i == pathSegments.length - 1;
+            // held while the folder is queried or created, so threads resolving the same folder wait for the result
+            // instead of creating a duplicate
+            synchronized (node.getCreationLock(pathSegments[i])) {
+                Node child = node.children.get(pathSegments[i]);
+                if (child == null) {
+                    missCount.incrementAndGet();
+                    Entity resolved = i == 0 ? findRootFolder(session, pathSegments[0], last)
+                            : findOrCreateFolder(session, node.id, pathSegments[i], last);
+                    child = new Node(resolved.getId());
+                    node.children.put(pathSegments[i], child);
+                    if (last) {
+                        folder = resolved;
+                    }
+                }
+                node = child;
+            }
+        }
+
+        return folder != null ? folder : session.getEntity(FOLDER_TYPE, node.id);
+    }
+
+    /**
+     * Checks if the given folders still exist, if they have not been validated within the validation interval.
+     *
+     * @return index of the first folder which does not exist anymore, or -1 if all folders exist
+     */
+    private int validate(HpAlmSession session, List<Node> nodes) throws IOException, HpAlmException {
+        long now = System.nanoTime();
+        StringBuilder query = new StringBuilder();
+        int count = 0;
+        for (Node n : nodes) {
+            if (now - n.validatedAt >= validationIntervalNanos) {
+                query.append(count++ == 0 ? "id[" : " OR ").append(HpAlmUtil.formatId(n.id));
+            }
+        }
+        if (count == 0) {
+            return -1;
+        }
+
+        Set<Long> existing = new HashSet<Long>();
+        for (Entity folder : session.queryEntities(FOLDER_TYPE, query.append(']').toString(),
+                new QueryOptions().setFields("id").setPageSize(count))) {
+            existing.add(Long.valueOf(folder.getId()));
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            Node n = nodes.get(i);
+            if (now - n.validatedAt >= validationIntervalNanos) {
+                if (!existing.contains(Long.valueOf(n.id))) {
+                    return i;
+                }
+                n.validatedAt = now;
+            }
+        }
+        return -1;
+    }
+
+    private static Entity findRootFolder(HpAlmSession session, String name, boolean complete) throws IOException,
+            HpAlmException {
+        EntityCollection rootFolders = session.queryEntities(FOLDER_TYPE, "name['" + name + "']",
+                complete ? HpAlmUtil.firstEntityOnly() : HpAlmUtil.firstIdOnly());
+        if (rootFolders.getTotalCount() != 1) {
+            throw new HpAlmException("Found no or more than one root folder matching first segment " + name);
+        }
+        return rootFolders.iterator().next();
+    }
+
+    private static Entity findOrCreateFolder(HpAlmSession session, long parentId, String name, boolean complete)
+            throws IOException, HpAlmException {
+        Entity folder = findFolder(session, parentId, name, complete);
+        if (folder != null) {
+            return folder;
+        }
+
+        try {
+            return session.createEntity(new TestSetFolderBuilder().setParentId(parentId).setName(name).create());
+        } catch (HpAlmException e) {
+            // another client may have created the folder in the meantime
+            folder = findFolder(session, parentId, name, complete);
+            if (folder != null) {
+                return folder;
+            }
+            throw e;
+        }
+    }
+
+    private static Entity findFolder(HpAlmSession session, long parentId, String name, boolean complete)
+            throws IOException, HpAlmException {
+        EntityCollection folders = session.queryEntities(FOLDER_TYPE, "name['" + name + "']; parent-id["
+                + HpAlmUtil.formatId(parentId) + "]", complete ? HpAlmUtil.firstEntityOnly() : HpAlmUtil.firstIdOnly());
+        if (folders.getTotalCount() > 1) {
+            // should not be (not allowed by HP ALM)
+            throw new HpAlmException("Found more than one folder matching segment " + name);
+        }
+        return folders.getTotalCount() == 0 ? null : folders.iterator().next();
+    }
+
+    private static final class Node {
+
+        private final long id;
+
+        private volatile long validatedAt = System.nanoTime();
+
+        private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<String, Node>();
+
+        // one lock per child name, for resolving missing children
+        private final ConcurrentMap<String, Object> creationLocks = new ConcurrentHashMap<String, Object>();
+
+        private Node(long id) {
+            this.id = id;
+        }
+
+        private Object getCreationLock(String name) {
+            Object lock = creationLocks.get(name);
+            if (lock == null) {
+                Object existing = creationLocks.putIfAbsent(name, lock = new Object());
+                if (existing != null) {
+                    lock = existing;
+                }
+            }
+            return lock;
+        }
+
+    }
+
+    private static final class SharedIndexHolder {
+
+        private static final TestSetFolderIndex INSTANCE = new TestSetFolderIndex();
+
+    }
+
+}
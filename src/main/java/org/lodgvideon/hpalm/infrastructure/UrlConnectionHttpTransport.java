@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+/**
+ * Default {@link HttpTransport}, based on {@link HttpURLConnection}. Connection reuse is left to the keep-alive handling of the
+ * JDK.
+ */
+public class UrlConnectionHttpTransport implements HttpTransport {
+
+    private volatile int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+    private volatile int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * @param connectTimeoutMillis Time in milliseconds to wait for a connection to be established. 0 waits forever.
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * @param readTimeoutMillis Time in milliseconds to wait for data on an established connection. 0 waits forever.
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Response execute(HttpTransportRequest request) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+
+        con.setRequestMethod(request.getMethod());
+        con.setConnectTimeout(connectTimeoutMillis);
+        con.setReadTimeout(readTimeoutMillis);
+
+        prepareHttpRequest(con, request);
+        con.connect();
+        return retrieveHtmlResponse(con);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release; connections are managed by the JDK
+    }
+
+    /**
+     * @param con     connection to set the headers and bytes in
+     * @param request the request containing headers, such as content-type and cookies, and the data to send
+     * @throws IOException
+     */
+    private void prepareHttpRequest(HttpURLConnection con, HttpTransportRequest request) throws IOException {
+
+        String contentType = null;
+
+        // send data from headers
+        Iterator<Entry<String, String>> headersIterator = request.getHeaders().entrySet().iterator();
+        while (headersIterator.hasNext()) {
+            Entry<String, String> header = headersIterator.next();
+            // Skip the content-type header - should only be sent
+            // if you actually have any content to send. see below.
+            if ("Content-Type".equalsIgnoreCase(header.getKey())) {
+                contentType = header.getValue();
+            } else {
+                con.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+
+        // If there's data to attach to the request, it's handled here.
+        // Note that if data exists, we take into account previously removed
+        // content-type.
+        if (request.hasBody()) {
+
+            con.setDoOutput(true);
+
+            // warning: if you add content-type header then you MUST send
+            // information or receive error.
+            // so only do so if you're writing information...
+            if (contentType != null) {
+                con.setRequestProperty("Content-Type", contentType);
+            }
+
+            // stream the body directly to the connection instead of letting the JDK buffer it
+            long length = request.getBody().getContentLength();
+            if (length >= 0) {
+                con.setFixedLengthStreamingMode(length);
+            } else {
+                con.setChunkedStreamingMode(RequestBody.BUFFER_SIZE);
+            }
+
+            OutputStream out = con.getOutputStream();
+            try {
+                request.getBody().writeTo(out);
+                out.flush();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @param con that is already connected to its url with an http request, and that should contain a response for us to retrieve
+     * @return a response from the server to the previously submitted http request, with the body as open stream
+     * @throws IOException
+     */
+    private Response retrieveHtmlResponse(HttpURLConnection con) throws IOException {
+
+        Response ret = new Response();
+
+        ret.setStatusCode(con.getResponseCode());
+        ret.setResponseHeaders(con.getHeaderFields());
+
+        InputStream inputStream;
+        // select the source of the input bytes, first try 'regular' input
+        try {
+            inputStream = con.getInputStream();
+        }
+
+        /*If the connection to the server somehow failed, for example 404 or 500, con.getInputStream() will throw an exception,
+         * which we'll keep. We'll also store the body of the exception page, in the response data. */ catch (IOException e) {
+            inputStream = con.getErrorStream();
+            ret.setFailure(e);
+        }
+
+        ret.setResponseStream(inputStream);
+
+        return ret;
+    }
+
+}
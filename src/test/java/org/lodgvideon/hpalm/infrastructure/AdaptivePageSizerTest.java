@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptivePageSizerTest {
+
+    @Test
+    public void testGrowAndShrink() {
+        AdaptivePageSizer sizer = new AdaptivePageSizer(100, 10, 1000, 1000, 1024 * 1024);
+        assertEquals(100, sizer.getPageSize());
+
+        // fast pages: grows at most by factor 2 per page, up to the maximum
+        sizer.recordPage(100, TimeUnit.MILLISECONDS.toNanos(10), 1000);
+        assertEquals(200, sizer.getPageSize());
+        for (int i = 0; i < 5; i++) {
+            sizer.recordPage(sizer.getPageSize(), TimeUnit.MILLISECONDS.toNanos(10), 1000);
+        }
+        assertEquals(1000, sizer.getPageSize());
+
+        // 4 ms per entity: 250 entities meet the target latency of 1 second
+        sizer.recordPage(1000, TimeUnit.MILLISECONDS.toNanos(4000), 1000);
+        assertEquals(500, sizer.getPageSize());
+        sizer.recordPage(500, TimeUnit.MILLISECONDS.toNanos(2000), 1000);
+        assertEquals(250, sizer.getPageSize());
+
+        // 16 KB per entity: at most 64 entities fit into 1 MB
+        sizer.recordPage(250, TimeUnit.MILLISECONDS.toNanos(10), 250 * 16 * 1024);
+        assertEquals(125, sizer.getPageSize());
+        sizer.recordPage(125, TimeUnit.MILLISECONDS.toNanos(10), 125 * 16 * 1024);
+        assertEquals(64, sizer.getPageSize());
+
+        // lower bound
+        for (int i = 0; i < 5; i++) {
+            sizer.recordPage(sizer.getPageSize(), TimeUnit.SECONDS.toNanos(100), 1000);
+        }
+        assertEquals(10, sizer.getPageSize());
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.junit.Test;
+import org.lodgvideon.hpalm.entity.Entity;
+import org.lodgvideon.hpalm.entity.Field;
+import org.lodgvideon.hpalm.entity.Fields;
+import org.lodgvideon.hpalm.testutil.DefaultHpAlmServlet;
+import org.lodgvideon.hpalm.testutil.MockingTestServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ChangeFeedTest {
+
+    @Test
+    public void testPoll() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet();
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        // the test servlet does not sort, so entities are kept in order of last-modified and ID
+        List<Entity> runs = new ArrayList<Entity>();
+        for (int i = 1; i <= 20; i++) {
+            runs.add(createRun(i, i <= 4 ? "2016-01-01 10:00:00" : i <= 12 ? "2016-01-01 10:00:10" : "2016-01-01 10:05:00"));
+        }
+        servlet.setEntities("run", runs);
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+
+        // small pages, so entities with the same timestamp span several pages
+        ChangeFeed feed = new ChangeFeed(session, "run").setPageSize(3);
+        CollectingHandler handler = new CollectingHandler();
+        ChangeWatermark watermark = feed.poll(ChangeWatermark.INITIAL, handler);
+        assertEquals(20, handler.ids.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i + 1, handler.ids.get(i).longValue());
+        }
+        assertEquals("2016-01-01 10:05:00", watermark.getLastModified());
+
+        // no changes
+        handler = new CollectingHandler();
+        assertEquals(watermark, feed.poll(watermark, handler));
+        assertEquals(0, handler.ids.size());
+
+        // run 3 modified, run 21 created, and run 22 committed late with an older timestamp
+        runs.remove(2);
+        runs.add(11, createRun(22, "2016-01-01 10:04:30"));
+        runs.add(createRun(3, "2016-01-01 10:06:00"));
+        runs.add(createRun(21, "2016-01-01 10:06:00"));
+        servlet.setEntities("run", runs);
+
+        handler = new CollectingHandler();
+        watermark = feed.poll(watermark, handler);
+        assertEquals(Arrays.asList(22L, 3L, 21L), handler.ids);
+        assertEquals("2016-01-01 10:06:00", watermark.getLastModified());
+
+        handler = new CollectingHandler();
+        feed.poll(watermark, handler);
+        assertEquals(0, handler.ids.size());
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testWatermarkPersistence() throws Exception {
+        assertNull(ChangeWatermark.parse(ChangeWatermark.INITIAL.toString()).getLastModified());
+
+        ChangeWatermark watermark = ChangeWatermark.parse("2016-01-01 10:06:00|3=2016-01-01 10:06:00|22=2016-01-01 10:05:30");
+        assertEquals("2016-01-01 10:06:00|3=2016-01-01 10:06:00|22=2016-01-01 10:05:30", watermark.toString());
+        assertEquals(watermark, ChangeWatermark.parse(watermark.toString()));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(watermark);
+        oos.close();
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals(watermark, ois.readObject());
+    }
+
+    private static Entity createRun(long id, String lastModified) {
+        Entity e = new Entity();
+        e.setType("run");
+        e.setFields(new Fields());
+        addField(e, "id", Long.toString(id));
+        addField(e, "last-modified", lastModified);
+        return e;
+    }
+
+    private static void addField(Entity e, String name, String value) {
+        Field f = new Field();
+        f.setName(name);
+        f.getValue().add(value);
+        e.getFields().getFieldList().add(f);
+    }
+
+    private static class CollectingHandler implements ChangeHandler {
+
+        private final List<Long> ids = new ArrayList<Long>();
+
+        @Override
+        public void handleChange(Entity entity) {
+            ids.add(entity.getId());
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testStateTransitions() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(2, 100);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.acquirePermission();
+        breaker.recordFailure();
+        breaker.acquirePermission();
+        breaker.recordSuccess();
+        breaker.acquirePermission();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.acquirePermission();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        try {
+            breaker.acquirePermission();
+            fail("Open breaker must reject requests");
+        } catch (CircuitBreakerOpenException e) {
+            assertEquals(CircuitBreaker.State.OPEN, e.getState());
+        }
+        assertEquals(1, breaker.getRejectedCount());
+
+        Thread.sleep(150);
+
+        // only one trial request in half-open state
+        breaker.acquirePermission();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        try {
+            breaker.acquirePermission();
+            fail("Half-open breaker must reject concurrent requests");
+        } catch (CircuitBreakerOpenException e) {
+            assertEquals(CircuitBreaker.State.HALF_OPEN, e.getState());
+        }
+
+        // failed trial opens the breaker again
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(150);
+        breaker.acquirePermission();
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+}
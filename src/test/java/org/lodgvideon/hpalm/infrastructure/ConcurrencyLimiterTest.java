@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void testLimitAdaptation() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 8, 100);
+
+        // fully used limit with normal latency grows
+        for (int i = 0; i < 50; i++) {
+            long[] permits = new long[limiter.getLimit()];
+            for (int j = 0; j < permits.length; j++) {
+                permits[j] = limiter.acquire();
+            }
+            for (long permit : permits) {
+                limiter.release(permit, false);
+            }
+        }
+        assertEquals(8, limiter.getLimit());
+
+        // overload shrinks the limit
+        limiter.release(limiter.acquire(), true);
+        assertEquals(7, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testQueueDeadline() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 50);
+
+        long permit = limiter.acquire();
+        long start = System.currentTimeMillis();
+        try {
+            limiter.acquire();
+            fail("Expected exceeded limit");
+        } catch (ConcurrencyLimitExceededException e) {
+            assertTrue(System.currentTimeMillis() - start >= 40);
+        }
+        assertEquals(1, limiter.getRejectedCount());
+        assertEquals(0, limiter.getQueueLength());
+
+        limiter.cancel(permit);
+        limiter.release(limiter.acquire(), false);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.junit.Test;
+import org.lodgvideon.hpalm.entity.Entity;
+import org.lodgvideon.hpalm.entity.Field;
+import org.lodgvideon.hpalm.entity.Fields;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EntityCacheTest {
+
+    private static final String SCOPE = "http://localhost/qcbin/rest/domains/DEFAULT/projects/Test";
+
+    @Test
+    public void testLruEviction() {
+        EntityCache cache = new EntityCache(3, 1, TimeUnit.MINUTES);
+        for (long id = 1; id <= 3; id++) {
+            cache.put(SCOPE, "test", createEntity("test", id));
+        }
+
+        // access 1, so 2 is least recently used
+        assertNotNull(cache.get(SCOPE, "test", 1));
+        cache.put(SCOPE, "test", createEntity("test", 4));
+        assertEquals(3, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get(SCOPE, "test", 2));
+        assertNotNull(cache.get(SCOPE, "test", 1));
+        assertNotNull(cache.get(SCOPE, "test", 4));
+
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.75, cache.getHitRate(), 0.001);
+
+        // keys include scope and type
+        assertNull(cache.get(SCOPE + "2", "test", 1));
+        assertNull(cache.get(SCOPE, "test-set", 1));
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        EntityCache cache = new EntityCache(100, 1, TimeUnit.MINUTES);
+        cache.setTimeToLive("run", 50, TimeUnit.MILLISECONDS);
+        cache.setTimeToLive("test-instance", 0, TimeUnit.MILLISECONDS);
+
+        cache.put(SCOPE, "test", createEntity("test", 1));
+        cache.put(SCOPE, "run", createEntity("run", 1));
+        cache.put(SCOPE, "test-instance", createEntity("test-instance", 1));
+        assertEquals(2, cache.getSize());
+
+        Thread.sleep(100);
+        assertNotNull(cache.get(SCOPE, "test", 1));
+        assertNull(cache.get(SCOPE, "run", 1));
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testCopiesAndInvalidation() {
+        EntityCache cache = new EntityCache();
+        Entity entity = createEntity("test", 1);
+        cache.put(SCOPE, "test", entity);
+        cache.put(SCOPE, "test", createEntity("test", 2));
+        cache.put(SCOPE, "test-set", createEntity("test-set", 1));
+
+        // modifications of the original or of returned entities do not affect the cache
+        entity.getFields().getFieldList().clear();
+        Entity cached = cache.get(SCOPE, "test", 1);
+        assertNotSame(entity, cached);
+        assertEquals(1, cached.getId());
+        cached.getFields().getFieldList().clear();
+        assertEquals(1, cache.get(SCOPE, "test", 1).getId());
+
+        cache.invalidate(SCOPE, "test", 1);
+        assertNull(cache.get(SCOPE, "test", 1));
+        assertNotNull(cache.get(SCOPE, "test", 2));
+
+        cache.invalidateType("test");
+        assertNull(cache.get(SCOPE, "test", 2));
+        assertNotNull(cache.get(SCOPE, "test-set", 1));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testGenerations() {
+        EntityCache cache = new EntityCache(2, 1, TimeUnit.MINUTES);
+
+        // entities invalidated while being loaded are not stored
+        long generation = cache.getGeneration(SCOPE, "test", 1);
+        cache.invalidate(SCOPE, "test", 1);
+        assertFalse(cache.put(SCOPE, "test", createEntity("test", 1), generation));
+        assertNull(cache.get(SCOPE, "test", 1));
+        assertTrue(cache.put(SCOPE, "test", createEntity("test", 1), cache.getGeneration(SCOPE, "test", 1)));
+
+        // other keys are not affected
+        generation = cache.getGeneration(SCOPE, "test", 2);
+        cache.invalidate(SCOPE, "test", 3);
+        assertTrue(cache.put(SCOPE, "test", createEntity("test", 2), generation));
+
+        generation = cache.getGeneration(SCOPE, "test", 2);
+        cache.invalidateType("test");
+        assertFalse(cache.put(SCOPE, "test", createEntity("test", 2), generation));
+
+        generation = cache.getGeneration(SCOPE, "test-set", 1);
+        cache.invalidateAll();
+        assertFalse(cache.put(SCOPE, "test-set", createEntity("test-set", 1), generation));
+
+        // generations of evicted keys are kept conservatively
+        generation = cache.getGeneration(SCOPE, "test", 4);
+        for (long id = 5; id <= 7; id++) {
+            cache.invalidate(SCOPE, "test", id);
+        }
+        assertFalse(cache.put(SCOPE, "test", createEntity("test", 4), generation));
+    }
+
+    private static Entity createEntity(String type, long id) {
+        Entity e = new Entity();
+        e.setType(type);
+        e.setFields(new Fields());
+        Field f = new Field();
+        f.setName("id");
+        f.getValue().add(Long.toString(id));
+        e.getFields().getFieldList().add(f);
+        return e;
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.junit.Test;
+import org.lodgvideon.hpalm.entity.Entity;
+import org.lodgvideon.hpalm.entity.TestSetBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class EntityMarshallingUtilsTest {
+
+    @Test
+    public void testContextIsShared() throws Exception {
+        EntityMarshallingUtils.warmUp();
+        assertSame(EntityMarshallingUtils.getContext(Entity.class), EntityMarshallingUtils.getContext(Entity.class));
+    }
+
+    @Test
+    public void testMarshalBytes() throws Exception {
+        Entity e = new TestSetBuilder().setName("Pr\u00fcfung \u20ac").create();
+        byte[] xml = EntityMarshallingUtils.unmarshal(Entity.class, e).getBytes("UTF-8");
+        assertEquals("Pr\u00fcfung \u20ac", EntityMarshallingUtils.marshal(Entity.class, xml).getStringFieldValue("name"));
+    }
+
+    @Test
+    public void testConcurrentRoundTrip() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+
+        for (int i = 0; i < 64; i++) {
+            final String name = "Set " + i;
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    Entity e = new TestSetBuilder().setName(name).create();
+                    String xml = EntityMarshallingUtils.unmarshal(Entity.class, e);
+                    return EntityMarshallingUtils.marshal(Entity.class, xml).getStringFieldValue("name");
+                }
+            }));
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals("Set " + i, results.get(i).get());
+        }
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.junit.Test;
+import org.lodgvideon.hpalm.entity.Entity;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EntityStreamReaderTest {
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+            + "<Entities TotalResults=\"250\">"
+            + "<Entity Type=\"run\"><ChildrenCount><Value>0</Value></ChildrenCount><Fields>"
+            + "<Field Name=\"id\"><Value>17</Value></Field>"
+            + "<Field Name=\"name\"><Value>Run &amp; Co</Value></Field>"
+            + "<Field Name=\"user-01\"><Value>a</Value><Value>b</Value></Field>"
+            + "<Field Name=\"comments\"/>"
+            + "</Fields><RelatedEntities/></Entity>"
+            + "<Entity Type=\"run\"><Fields><Field Name=\"id\"><Value>18</Value></Field></Fields></Entity>"
+            + "</Entities>";
+
+    @Test
+    public void testReadEntities() throws IOException {
+        EntityStreamReader reader = new EntityStreamReader(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+        assertEquals(250, reader.getTotalResults());
+
+        assertTrue(reader.hasNext());
+        Entity e = reader.next();
+        assertEquals("run", e.getType());
+        assertEquals(17, e.getId());
+        assertEquals("Run & Co", e.getStringFieldValue("name"));
+        assertEquals(2, e.getFields().getFieldList().get(2).getValue().size());
+        assertNull(e.getStringFieldValue("comments"));
+
+        assertTrue(reader.hasNext());
+        assertEquals(18, reader.next().getId());
+        assertFalse(reader.hasNext());
+        assertEquals(2, reader.getReadCount());
+    }
+
+    @Test
+    public void testEmptyResult() throws IOException {
+        EntityStreamReader reader = new EntityStreamReader(new ByteArrayInputStream("<Entities TotalResults=\"0\"/>"
+                .getBytes("UTF-8")));
+        assertEquals(0, reader.getTotalResults());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void testCloseEarly() throws IOException {
+        // small rest is drained, so the connection can be reused
+        ByteArrayInputStream in = new ByteArrayInputStream(XML.getBytes("UTF-8"));
+        EntityStreamReader reader = new EntityStreamReader(in);
+        reader.next();
+        reader.close();
+        assertEquals(0, in.available());
+
+        // large rest is not downloaded
+        StringBuilder xml = new StringBuilder("<Entities TotalResults=\"10000\">");
+        for (int i = 1; i <= 10000; i++) {
+            xml.append("<Entity Type=\"run\"><Fields><Field Name=\"id\"><Value>").append(i)
+                    .append("</Value></Field></Fields></Entity>");
+        }
+        in = new ByteArrayInputStream(xml.append("</Entities>").toString().getBytes("UTF-8"));
+        reader = new EntityStreamReader(in);
+        assertEquals(1, reader.next().getId());
+        reader.close();
+        assertTrue(in.available() > 0);
+        assertFalse(reader.hasNext());
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidRootElement() throws IOException {
+        new EntityStreamReader(new ByteArrayInputStream("<QCRestException/>".getBytes("UTF-8")));
+    }
+
+}
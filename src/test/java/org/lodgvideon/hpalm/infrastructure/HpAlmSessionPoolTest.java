@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.junit.Test;
+import org.lodgvideon.hpalm.entity.Entity;
+import org.lodgvideon.hpalm.entity.TestInstanceBuilder;
+import org.lodgvideon.hpalm.testutil.DefaultHpAlmServlet;
+import org.lodgvideon.hpalm.testutil.MockingTestServer;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HpAlmSessionPoolTest {
+
+    @Test
+    public void testParallelExecution() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet();
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        Entity e = new TestInstanceBuilder().setStatus("Passed").create();
+        servlet.setEntities("test-instance", Collections.singletonList(e));
+
+        final HpAlmSessionPool pool = HpAlmSessionPool.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234", 3);
+        assertEquals(3, pool.getAvailableCount());
+
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return pool.execute(new HpAlmSessionCallback<Integer>() {
+                        @Override
+                        public Integer doWithSession(HpAlmSession session) throws IOException, HpAlmException {
+                            return session.queryEntities("test-instance", null).getTotalCount();
+                        }
+                    });
+                }
+            }));
+        }
+        for (Future<Integer> future : futures) {
+            assertEquals(1, future.get(10, TimeUnit.SECONDS).intValue());
+        }
+        executor.shutdown();
+
+        assertEquals(3, pool.getAvailableCount());
+        assertEquals(0, pool.getLeasedCount());
+
+        pool.close();
+        server.stopServer();
+    }
+
+    @Test
+    public void testLeaseTimeoutAndReplacement() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+        server.startServer();
+
+        HpAlmSessionPool pool = HpAlmSessionPool.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234", 2);
+
+        HpAlmSession first = pool.lease(1, TimeUnit.SECONDS);
+        HpAlmSession second = pool.lease(1, TimeUnit.SECONDS);
+        assertNotSame(first, second);
+
+        try {
+            pool.lease(100, TimeUnit.MILLISECONDS);
+            fail("Expected lease timeout");
+        } catch (HpAlmException e) {
+            // expected
+        }
+
+        pool.release(first);
+        pool.invalidate(second);
+
+        // replacement is created in the background
+        HpAlmSession a = pool.lease(5, TimeUnit.SECONDS);
+        HpAlmSession b = pool.lease(5, TimeUnit.SECONDS);
+        assertTrue(a != second && b != second);
+        assertEquals(1, pool.getReplacementCount());
+        pool.release(a);
+        pool.release(b);
+
+        pool.close();
+        server.stopServer();
+    }
+
+    @Test
+    public void testSharedCircuitBreaker() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+        server.startServer();
+
+        HpAlmSessionPool pool = HpAlmSessionPool.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234", 2);
+        CircuitBreaker breaker = new CircuitBreaker();
+        pool.setCircuitBreaker(breaker);
+
+        HpAlmSession first = pool.lease(1, TimeUnit.SECONDS);
+        HpAlmSession second = pool.lease(1, TimeUnit.SECONDS);
+        assertSame(breaker, first.getConnector().getCircuitBreaker());
+        assertSame(breaker, second.getConnector().getCircuitBreaker());
+
+        // replacement sessions share the breaker as well
+        pool.release(first);
+        pool.invalidate(second);
+        HpAlmSession a = pool.lease(5, TimeUnit.SECONDS);
+        HpAlmSession b = pool.lease(5, TimeUnit.SECONDS);
+        assertSame(breaker, a.getConnector().getCircuitBreaker());
+        assertSame(breaker, b.getConnector().getCircuitBreaker());
+        pool.release(a);
+        pool.release(b);
+
+        pool.close();
+        server.stopServer();
+    }
+
+    @Test
+    public void testFailureClassification() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+        server.startServer();
+
+        HpAlmSessionPool pool = HpAlmSessionPool.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234", 1);
+        HpAlmSession session = pool.lease(1, TimeUnit.SECONDS);
+        pool.release(session);
+
+        // rejected requests and caller errors keep the session
+        executeFailing(pool, new CircuitBreakerOpenException("Circuit breaker is open", CircuitBreaker.State.OPEN));
+        executeFailing(pool, new ConcurrencyLimitExceededException("Concurrency limit exceeded"));
+        executeFailing(pool, new IOException("Could not read attachment data"));
+        executeFailing(pool, new IllegalStateException("Could not retrieve next bunch of entities"));
+
+        HpAlmSession same = pool.lease(1, TimeUnit.SECONDS);
+        assertSame(session, same);
+        assertEquals(0, pool.getReplacementCount());
+        pool.release(same);
+
+        // a broken connection replaces the session
+        executeFailing(pool, new SocketException("Connection reset"));
+        HpAlmSession replacement = pool.lease(5, TimeUnit.SECONDS);
+        assertNotSame(session, replacement);
+        assertEquals(1, pool.getReplacementCount());
+        pool.release(replacement);
+
+        pool.close();
+        server.stopServer();
+    }
+
+    private static void executeFailing(HpAlmSessionPool pool, final Exception exception) throws HpAlmException {
+        try {
+            pool.execute(new HpAlmSessionCallback<Object>() {
+                @Override
+                public Object doWithSession(HpAlmSession session) throws IOException, HpAlmException {
+                    if (exception instanceof IOException) {
+                        throw (IOException) exception;
+                    }
+                    throw (RuntimeException) exception;
+                }
+            });
+            fail("Expected exception");
+        } catch (IOException e) {
+            assertSame(exception, e);
+        } catch (RuntimeException e) {
+            assertSame(exception, e);
+        }
+    }
+
+}
@@ -15,18 +15,66 @@
  */
 package org.lodgvideon.hpalm.infrastructure;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 import org.lodgvideon.hpalm.entity.Entity;
 import org.lodgvideon.hpalm.entity.Field;
+import org.lodgvideon.hpalm.entity.Fields;
 import org.lodgvideon.hpalm.entity.TestInstanceBuilder;
+import org.lodgvideon.hpalm.entity.TestRunBuilder;
 import org.lodgvideon.hpalm.testutil.DefaultHpAlmServlet;
 import org.lodgvideon.hpalm.testutil.DefaultTimeEndpoint;
 import org.lodgvideon.hpalm.testutil.MockingTestServer;
+import org.lodgvideon.hpalm.testutil.RecordingHpAlmServlet;
 
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class HpAlmSessionTest {
 
@@ -85,4 +133,941 @@ public class HpAlmSessionTest {
         server.stopServer();
     }
 
+    @Test
+    public void testStreamCollection() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet();
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        Entity e = new TestInstanceBuilder().setStatus("Passed").create();
+        Field id = new Field();
+        id.setName("id");
+        id.getValue().add("123");
+        e.getFields().getFieldList().add(id);
+        servlet.setEntities("test-instance", Collections.singletonList(e));
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+
+        EntityCollection ec = session.streamEntities("test-instance", "id[>0]");
+        assertEquals(1, ec.getTotalCount());
+
+        Iterator<Entity> iter = ec.iterator();
+        Entity eReturn = iter.next();
+        assertEquals(123, eReturn.getId());
+        assertEquals("Passed", eReturn.getStringFieldValue("status"));
+        assertFalse(iter.hasNext());
+
+        // second iteration queries again
+        assertEquals(123, ec.iterator().next().getId());
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testPooledTransport() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet();
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        Entity e = new TestInstanceBuilder().setStatus("Passed").create();
+        servlet.setEntities("test-instance", Collections.singletonList(e));
+
+        PooledHttpTransport transport = new PooledHttpTransport(2, 2, 10000);
+        RestConnector connector = new RestConnector(new HashMap<String, String>(), server.getBaseUrl(), "DEFAULT", "Test",
+                transport);
+        HpAlmSession session = HpAlmSession.create(connector, "test1", "test1234");
+
+        for (int i = 0; i < 3; i++) {
+            EntityCollection ec = session.queryEntities("test-instance", null);
+            assertEquals("Passed", ec.iterator().next().getStringFieldValue("status"));
+        }
+
+        // streams closed early are drained, so their connections are reused
+        long createdCount = transport.getCreatedConnectionCount();
+        EntityIterator iterator = session.streamEntities("test-instance", null).iterator();
+        try {
+            assertEquals("Passed", iterator.next().getStringFieldValue("status"));
+        } finally {
+            iterator.close();
+        }
+        Stream<Entity> stream = session.streamEntities("test-instance", null).stream();
+        try {
+            assertEquals("Passed", stream.findFirst().get().getStringFieldValue("status"));
+        } finally {
+            stream.close();
+        }
+        session.getServerTime();
+        assertEquals(createdCount, transport.getCreatedConnectionCount());
+
+        assertTrue(transport.getReusedConnectionCount() > transport.getCreatedConnectionCount());
+        assertEquals(transport.getRequestCount(), transport.getCreatedConnectionCount()
+                + transport.getReusedConnectionCount());
+
+        session.logout();
+        connector.close();
+        server.stopServer();
+    }
+
+    @Test
+    public void testAsyncQueries() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet();
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        Entity e = new TestInstanceBuilder().setStatus("Passed").create();
+        servlet.setEntities("test-instance", Collections.singletonList(e));
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+        AsyncHpAlmSession async = new AsyncHpAlmSession(session);
+
+        List<CompletableFuture<EntityCollection>> futures = new ArrayList<CompletableFuture<EntityCollection>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(async.queryEntities("test-instance", null));
+        }
+        for (CompletableFuture<EntityCollection> future : futures) {
+            assertEquals(1, future.get(10, TimeUnit.SECONDS).getTotalCount());
+        }
+
+        async.close();
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testAttachmentRoundTrip() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+        server.startServer();
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+
+        Entity run = new TestRunBuilder().setName("Run 1").create();
+        Field id = new Field();
+        id.setName("id");
+        id.getValue().add("42");
+        run.getFields().getFieldList().add(id);
+
+        byte[] data = new byte[300 * 1024];
+        new Random(17).nextBytes(data);
+        File file = File.createTempFile("hpalm", ".bin");
+        file.deleteOnExit();
+        FileUtils.writeByteArrayToFile(file, data);
+
+        Entity attachment = session.createAttachment(run, "data file.bin", file);
+        assertEquals("data file.bin", attachment.getStringFieldValue("name"));
+        session.createAttachment(run, "log.txt", new ByteArrayInputStream("Hello".getBytes("UTF-8")));
+
+        EntityCollection attachments = session.getAttachments(run);
+        assertEquals(2, attachments.getTotalCount());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        assertEquals(data.length, session.downloadAttachment(run, "data file.bin", baos));
+        assertArrayEquals(data, baos.toByteArray());
+
+        File target = File.createTempFile("hpalm", ".txt");
+        target.deleteOnExit();
+        assertEquals(5, session.downloadAttachment(run, "log.txt", target.toPath()));
+        assertEquals("Hello", FileUtils.readFileToString(target, "UTF-8"));
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testAttachmentUploads() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        // transfer headers of the uploads, by attachment name
+        final Map<String, String> transferHeaders = new ConcurrentHashMap<String, String>();
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet() {
+            @Override
+            protected void handleAttachments(HttpServletRequest request, HttpServletResponse response, String owner,
+                                             String attachmentName) throws ServletException, IOException {
+                if ("POST".equals(request.getMethod())) {
+                    transferHeaders.put(request.getHeader("Slug"), request.getHeader("Content-Length") + " "
+                            + request.getHeader("Transfer-Encoding"));
+                }
+                super.handleAttachments(request, response, owner, attachmentName);
+            }
+        };
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+
+        Entity run = new TestRunBuilder().setName("Run 1").create();
+        Field id = new Field();
+        id.setName("id");
+        id.getValue().add("42");
+        run.getFields().getFieldList().add(id);
+
+        byte[] data = new byte[100 * 1024];
+        new Random(17).nextBytes(data);
+        File file = File.createTempFile("hpalm", ".bin");
+        file.deleteOnExit();
+        FileUtils.writeByteArrayToFile(file, data);
+
+        // streams of unknown length are sent chunked
+        session.createAttachment(run, "stream.bin", new ByteArrayInputStream(data));
+        assertEquals("null chunked", transferHeaders.get("stream.bin"));
+        assertArrayEquals(data, downloadAttachment(session, run, "stream.bin"));
+
+        // streams of known length are sent with a content length, and only the given count of bytes is read
+        session.createAttachment(run, "prefix.bin", new ByteArrayInputStream(data), 1000);
+        assertEquals("1000 null", transferHeaders.get("prefix.bin"));
+        assertArrayEquals(Arrays.copyOf(data, 1000), downloadAttachment(session, run, "prefix.bin"));
+
+        session.createAttachment(run, "file.bin", file);
+        assertEquals(data.length + " null", transferHeaders.get("file.bin"));
+        assertArrayEquals(data, downloadAttachment(session, run, "file.bin"));
+
+        // channels are sent from their current position
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            channel.position(100);
+            session.createAttachment(run, "channel.bin", channel);
+        } finally {
+            channel.close();
+        }
+        assertEquals((data.length - 100) + " null", transferHeaders.get("channel.bin"));
+        assertArrayEquals(Arrays.copyOfRange(data, 100, data.length), downloadAttachment(session, run, "channel.bin"));
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testReauthentication() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet();
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        Entity e = new TestInstanceBuilder().setStatus("Passed").create();
+        servlet.setEntities("test-instance", Collections.singletonList(e));
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+        assertEquals(1, session.queryEntities("test-instance", null).getTotalCount());
+
+        servlet.getAuthenticationEndpoint().expireAllSessions();
+        assertEquals(1, session.queryEntities("test-instance", null).getTotalCount());
+        assertEquals(1, session.getReauthenticationCount());
+
+        // keep-alive renews the session as well
+        servlet.getAuthenticationEndpoint().expireAllSessions();
+        session.startKeepAlive(50);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (session.getReauthenticationCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, session.getReauthenticationCount());
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testRequestCoalescing() throws Exception {
+        final AtomicInteger collectionRequests = new AtomicInteger();
+        MockingTestServer server = new MockingTestServer();
+
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet() {
+            @Override
+            protected void handleCollection(HttpServletRequest request, HttpServletResponse response, String domain,
+                                            String project, String typeName) throws ServletException, IOException {
+                collectionRequests.incrementAndGet();
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    throw new ServletException(e);
+                }
+                super.handleCollection(request, response, domain, project, typeName);
+            }
+        };
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        Entity e = new TestInstanceBuilder().setStatus("Passed").create();
+        servlet.setEntities("test-instance", Collections.singletonList(e));
+
+        final HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+        session.setRequestCoalescingEnabled(true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        List<Future<Entity>> futures = new ArrayList<Future<Entity>>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(executor.submit(new Callable<Entity>() {
+                @Override
+                public Entity call() throws Exception {
+                    return session.queryEntities("test-instance", "status['Passed']").iterator().next();
+                }
+            }));
+        }
+
+        Set<Entity> results = Collections.newSetFromMap(new IdentityHashMap<Entity, Boolean>());
+        for (Future<Entity> future : futures) {
+            Entity result = future.get(10, TimeUnit.SECONDS);
+            assertEquals("Passed", result.getStringFieldValue("status"));
+            results.add(result);
+        }
+        executor.shutdown();
+
+        // one network call, but every caller got its own copy
+        assertEquals(1, collectionRequests.get());
+        assertEquals(4, session.getCoalescedRequestCount());
+        assertEquals(5, results.size());
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testPagedQueries() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet();
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        servlet.setEntities("test-instance", createTestInstances(250));
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+
+        // synchronous paging
+        EntityCollection ec = session.queryEntities("test-instance", null);
+        assertEquals(250, ec.getTotalCount());
+        assertSequentialIds(ec, 250);
+
+        // prefetching of next pages
+        ec = session.queryEntities("test-instance", null, new QueryOptions().setPrefetchDepth(2));
+        assertSequentialIds(ec, 250);
+
+        // parallel fetching of all pages
+        ec = session.queryEntities("test-instance", null, new QueryOptions().setParallelism(3));
+        assertSequentialIds(ec, 250);
+
+        ec = session.queryEntities("test-instance", null, new QueryOptions().setParallelism(3).setOrdered(false));
+        Set<Long> ids = new HashSet<Long>();
+        for (Entity entity : ec) {
+            ids.add(entity.getId());
+        }
+        assertEquals(250, ids.size());
+
+        // explicit, session default and adaptive page sizes
+        ec = session.queryEntities("test-instance", null, new QueryOptions().setPageSize(30));
+        assertSequentialIds(ec, 250);
+
+        ec = session.queryEntities("test-instance", null, new QueryOptions().setPageSize(30).setPrefetchDepth(2));
+        assertSequentialIds(ec, 250);
+
+        ec = session.queryEntities("test-instance", null, new QueryOptions().setPageSize(30).setParallelism(3));
+        assertSequentialIds(ec, 250);
+
+        session.setDefaultPageSize(40);
+        assertSequentialIds(session.queryEntities("test-instance", null), 250);
+        session.setDefaultPageSize(0);
+
+        AdaptivePageSizer sizer = new AdaptivePageSizer(10, 10, 2000, 60000, Long.MAX_VALUE);
+        ec = session.queryEntities("test-instance", null, new QueryOptions().setAdaptivePageSizer(sizer));
+        assertSequentialIds(ec, 250);
+        assertTrue(sizer.getPageSize() > 10);
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testPrefetchCancellation() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet() {
+            @Override
+            protected void handleCollection(HttpServletRequest request, HttpServletResponse response, String domain,
+                                            String project, String typeName) throws ServletException, IOException {
+                if ("11".equals(request.getParameter("start-index"))) {
+                    response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                    return;
+                }
+                super.handleCollection(request, response, domain, project, typeName);
+            }
+        };
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        servlet.setEntities("test-instance", createTestInstances(100));
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+
+        // executor only collecting the page requests, to run them on demand
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        QueryOptions options = new QueryOptions().setPageSize(10).setPrefetchDepth(3).setExecutor(executor);
+
+        // closing the iterator cancels all pending pages
+        EntityIterator iterator = session.queryEntities("test-instance", null, options).iterator();
+        assertEquals(3, tasks.size());
+        assertEquals(1, iterator.next().getId());
+        iterator.close();
+        assertFalse(iterator.hasNext());
+        for (Runnable task : tasks) {
+            assertTrue(((Future<?>) task).isCancelled());
+        }
+
+        // a failed page cancels the pages requested after it
+        tasks.clear();
+        iterator = session.queryEntities("test-instance", null, options).iterator();
+        for (int i = 0; i < 10; i++) {
+            iterator.next();
+        }
+        tasks.get(0).run();
+        try {
+            iterator.next();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof HpAlmException);
+        }
+        assertTrue(((Future<?>) tasks.get(1)).isCancelled());
+        assertTrue(((Future<?>) tasks.get(2)).isCancelled());
+        assertFalse(iterator.hasNext());
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testParallelQueryLimits() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        final AtomicInteger pageRequests = new AtomicInteger();
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet() {
+            @Override
+            protected void handleCollection(HttpServletRequest request, HttpServletResponse response, String domain,
+                                            String project, String typeName) throws ServletException, IOException {
+                if (request.getParameter("start-index") != null) {
+                    pageRequests.incrementAndGet();
+                }
+                if ("21".equals(request.getParameter("start-index")) && request.getParameter("fields") != null) {
+                    response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                    return;
+                }
+                super.handleCollection(request, response, domain, project, typeName);
+            }
+        };
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        servlet.setEntities("test-instance", createTestInstances(100));
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+
+        // executor only collecting the workers, to run them on demand
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        QueryOptions options = new QueryOptions().setPageSize(10).setParallelism(2).setExecutor(executor);
+
+        // workers stop when twice the parallelism of pages is buffered
+        EntityIterator iterator = session.queryEntities("test-instance", null, options).iterator();
+        assertEquals(2, tasks.size());
+        tasks.get(0).run();
+        tasks.get(1).run();
+        assertEquals(4, pageRequests.get());
+
+        // consuming a page lets a worker continue
+        for (int i = 1; i <= 11; i++) {
+            assertEquals(i, iterator.next().getId());
+        }
+        assertEquals(3, tasks.size());
+        tasks.get(2).run();
+        assertEquals(5, pageRequests.get());
+
+        // closed iterators do not request further pages
+        iterator.close();
+        assertFalse(iterator.hasNext());
+        for (Runnable task : tasks) {
+            task.run();
+        }
+        assertEquals(5, pageRequests.get());
+
+        // a failed page stops all workers, and fails each further call without blocking
+        tasks.clear();
+        options.setOrdered(false).setFields("id", "status");
+        iterator = session.queryEntities("test-instance", null, options).iterator();
+        tasks.get(0).run();
+        tasks.get(1).run();
+        for (int i = 0; i < 2; i++) {
+            try {
+                iterator.hasNext();
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getCause() instanceof HpAlmException);
+            }
+        }
+        assertEquals(7, pageRequests.get());
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testFieldProjection() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet();
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        servlet.setEntities("test-instance", createTestInstances(10));
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+
+        Entity entity = session.queryEntities("test-instance", null).iterator().next();
+        assertEquals("Failed", entity.getStringFieldValue("status"));
+
+        EntityCollection ec = session.queryEntities("test-instance", null, new QueryOptions().setFields("status"));
+        assertSequentialIds(ec, 10);
+        for (Entity e : ec) {
+            assertEquals(2, e.getFields().getFieldList().size());
+            assertNotNull(e.getStringFieldValue("status"));
+        }
+
+        ec = session.queryEntities("test-instance", null, new QueryOptions().setFields("id"));
+        for (Entity e : ec) {
+            assertEquals(1, e.getFields().getFieldList().size());
+        }
+
+        // single entities and collections of a specific type
+        List<Entity> tests = new ArrayList<Entity>();
+        for (int i = 1; i <= 3; i++) {
+            Entity test = new Entity();
+            test.setType("test");
+            test.setFields(new Fields());
+            addField(test, "id", Integer.toString(i));
+            addField(test, "name", "Test " + i);
+            addField(test, "owner", "user" + i);
+            tests.add(test);
+        }
+        servlet.setEntities("test", tests);
+
+        Entity test = session.getTest(2, "name");
+        assertEquals(2, test.getFields().getFieldList().size());
+        assertEquals("Test 2", test.getStringFieldValue("name"));
+        assertNull(test.getStringFieldValue("owner"));
+        assertEquals("user2", session.getTest(2).getStringFieldValue("owner"));
+
+        ec = session.getTests("name");
+        assertSequentialIds(ec, 3);
+        for (Entity e : ec) {
+            assertEquals(2, e.getFields().getFieldList().size());
+            assertNull(e.getStringFieldValue("owner"));
+        }
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testStreams() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet();
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        servlet.setEntities("test-instance", createTestInstances(250));
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+
+        QueryOptions options = new QueryOptions().setPageSize(30);
+        EntityCollection ec = session.queryEntities("test-instance", null, options);
+        assertEquals(250, ec.stream().count());
+        assertSequentialIds(ec.stream().collect(Collectors.<Entity>toList()), 250);
+
+        // parallel streams keep the order of the result
+        ec = session.queryEntities("test-instance", null, options);
+        assertSequentialIds(ec.parallelStream().collect(Collectors.<Entity>toList()), 250);
+
+        // splits on page boundaries
+        Spliterator<Entity> suffix = ec.spliterator();
+        assertTrue(suffix.hasCharacteristics(Spliterator.SIZED | Spliterator.ORDERED));
+        assertEquals(250, suffix.getExactSizeIfKnown());
+        Spliterator<Entity> prefix = suffix.trySplit();
+        assertEquals(120, prefix.getExactSizeIfKnown());
+        assertEquals(130, suffix.getExactSizeIfKnown());
+
+        // non-paged result
+        assertEquals(250, session.queryEntities("test-instance", null, new QueryOptions().setPageSize(500)).parallelStream()
+                .count());
+
+        // result changing during traversal does not match the reported size
+        ec = session.queryEntities("test-instance", null, options);
+        servlet.setEntities("test-instance", createTestInstances(240));
+        try {
+            ec.parallelStream().collect(Collectors.<Entity>toList());
+            fail("Expected ConcurrentModificationException");
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testCountEntities() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        RecordingHpAlmServlet servlet = new RecordingHpAlmServlet();
+        List<String> requestedUrls = servlet.getRequestedUrls();
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        servlet.setEntities("test-instance", createTestInstances(250));
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+
+        assertEquals(250, session.countEntities("test-instance", null));
+        assertEquals(125, session.countEntities("test-instance", "status['Passed']"));
+        assertTrue(session.exists("test-instance", "status['Failed']"));
+        assertFalse(session.exists("test-instance", "status['Blocked']"));
+        assertFalse(session.exists("test-set", null));
+
+        assertEquals(5, requestedUrls.size());
+        for (String url : requestedUrls) {
+            assertTrue(url, url.contains("page-size=1") && url.contains("fields=id"));
+        }
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testKeysetPagination() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        RecordingHpAlmServlet servlet = new RecordingHpAlmServlet();
+        List<String> requestedUrls = servlet.getRequestedUrls();
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        List<Entity> testInstances = createTestInstances(250);
+        servlet.setEntities("test-instance", testInstances);
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+
+        EntityCollection ec = session.queryEntities("test-instance", null,
+                new QueryOptions().setKeysetPagination(true).setPageSize(30));
+        assertEquals(250, ec.getTotalCount());
+        assertSequentialIds(ec, 250);
+        assertEquals(9, requestedUrls.size());
+        assertTrue(requestedUrls.get(0).contains("order-by={id%5BASC%5D}"));
+        assertFalse(requestedUrls.get(0).contains("query="));
+        assertFalse(requestedUrls.get(1).contains("start-index"));
+
+        // entities deleted during the scan do not cause gaps
+        Iterator<Entity> iter = session.queryEntities("test-instance", null,
+                new QueryOptions().setKeysetPagination(true).setPageSize(30)).iterator();
+        for (int i = 1; i <= 30; i++) {
+            assertEquals(i, iter.next().getId());
+        }
+        servlet.setEntities("test-instance", new ArrayList<Entity>(testInstances.subList(10, 250)));
+        for (int i = 31; i <= 250; i++) {
+            assertEquals(i, iter.next().getId());
+        }
+        assertFalse(iter.hasNext());
+
+        // combined with query filter; 120 of the remaining 240 entities have passed
+        ec = session.queryEntities("test-instance", "status['Passed']",
+                new QueryOptions().setKeysetPagination(true).setPageSize(20));
+        int count = 0;
+        for (Entity e : ec) {
+            assertEquals("Passed", e.getStringFieldValue("status"));
+            count++;
+        }
+        assertEquals(120, count);
+
+        try {
+            session.queryEntities("test-instance", null, new QueryOptions().setKeysetPagination(true).setOrderBy("name"));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testGetEntities() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        RecordingHpAlmServlet servlet = new RecordingHpAlmServlet();
+        List<String> requestedUrls = servlet.getRequestedUrls();
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        servlet.setEntities("test-instance", createTestInstances(250));
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+        session.setMaxUrlLength(400);
+
+        List<Long> ids = new ArrayList<Long>();
+        for (long id = 260; id > 0; id -= 2) {
+            ids.add(id);
+        }
+        EntityLookupResult result = session.getEntities("test-instance", ids);
+        assertFalse(result.isComplete());
+        assertEquals(Arrays.asList(260L, 258L, 256L, 254L, 252L), new ArrayList<Long>(result.getMissingIds()));
+        assertEquals(125, result.getEntities().size());
+        assertEquals(250L, result.getEntities().keySet().iterator().next().longValue());
+        assertEquals(2L, result.getEntity(2).getId());
+        assertNull(result.getEntity(3));
+
+        assertTrue(requestedUrls.size() > 1);
+        assertTrue(requestedUrls.size() < 20);
+        for (String url : requestedUrls) {
+            assertTrue(url, url.length() <= 400);
+        }
+
+        // with projection, single chunk
+        requestedUrls.clear();
+        result = session.getEntities("test-instance", Arrays.asList(1L, 2L, 3L), new QueryOptions().setFields("status"));
+        assertTrue(result.isComplete());
+        assertEquals(1, requestedUrls.size());
+        assertEquals(2, result.getEntity(1).getFields().getFieldList().size());
+
+        assertTrue(session.getEntities("test-instance", Collections.<Long>emptyList()).getEntities().isEmpty());
+        assertEquals(1, requestedUrls.size());
+
+        // parallelism 1 requests all chunks sequentially in the calling thread
+        requestedUrls.clear();
+        final AtomicInteger executedTasks = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executedTasks.incrementAndGet();
+                command.run();
+            }
+        };
+        result = session.getEntities("test-instance", ids, new QueryOptions().setParallelism(1).setExecutor(executor));
+        assertEquals(125, result.getEntities().size());
+        assertTrue(requestedUrls.size() > 1);
+        assertEquals(0, executedTasks.get());
+
+        // without parallelism, chunks are requested concurrently
+        session.getEntities("test-instance", ids, new QueryOptions().setExecutor(executor));
+        assertEquals(HpAlmSession.DEFAULT_LOOKUP_PARALLELISM, executedTasks.get());
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testResumableScan() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet();
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        servlet.setEntities("test-instance", createTestInstances(250));
+
+        HpAlmSession session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+
+        for (boolean keyset : new boolean[]{false, true}) {
+            ScanCursor start = ScanCursor.start("test-instance", null,
+                    new QueryOptions().setPageSize(30).setKeysetPagination(keyset).setFields("status"));
+
+            // interrupted scan
+            EntityScan scan = session.scan(start);
+            for (int i = 1; i <= 100; i++) {
+                assertEquals(i, scan.next().getId());
+            }
+            String token = scan.getCursor().toToken();
+            assertEquals(100, scan.getCursor().getOffset());
+            assertEquals(100, scan.getCursor().getLastId());
+
+            // resumed in new session
+            session.logout();
+            session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+            ScanCursor cursor = ScanCursor.fromToken(token);
+            assertEquals(keyset, cursor.isKeyset());
+            scan = session.scan(cursor);
+            for (int i = 101; i <= 250; i++) {
+                Entity e = scan.next();
+                assertEquals(i, e.getId());
+                assertEquals(2, e.getFields().getFieldList().size());
+            }
+            assertFalse(scan.hasNext());
+        }
+
+        // Java serialization
+        ScanCursor cursor = ScanCursor.start("test-instance", "status['Passed']", null);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(cursor);
+        oos.close();
+        cursor = (ScanCursor) new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+        int count = 0;
+        for (EntityScan scan = session.scan(cursor); scan.hasNext(); scan.next()) {
+            count++;
+        }
+        assertEquals(125, count);
+
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testEntityCache() throws Exception {
+        MockingTestServer server = new MockingTestServer();
+
+        final AtomicInteger entityRequests = new AtomicInteger();
+        final AtomicBoolean delayNextRead = new AtomicBoolean();
+        final CountDownLatch readStarted = new CountDownLatch(1);
+        final CountDownLatch updated = new CountDownLatch(1);
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet() {
+            @Override
+            protected void handleEntity(HttpServletRequest request, HttpServletResponse response, String typeName,
+                                        long id) throws ServletException, IOException {
+                if (!"GET".equals(request.getMethod())) {
+                    super.handleEntity(request, response, typeName, id);
+                    return;
+                }
+                entityRequests.incrementAndGet();
+                if (!delayNextRead.compareAndSet(true, false)) {
+                    super.handleEntity(request, response, typeName, id);
+                    return;
+                }
+
+                // read the entity now, but deliver it only after it has been updated
+                final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                super.handleEntity(request, new HttpServletResponseWrapper(response) {
+                    @Override
+                    public ServletOutputStream getOutputStream() {
+                        return new ServletOutputStream() {
+                            @Override
+                            public void write(int b) {
+                                buffer.write(b);
+                            }
+                        };
+                    }
+                }, typeName, id);
+                readStarted.countDown();
+                try {
+                    updated.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new ServletException(e);
+                }
+                response.getOutputStream().write(buffer.toByteArray());
+            }
+        };
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        servlet.setEntities("test-instance", createTestInstances(10));
+
+        // own connection pool, as the concurrent update needs a second connection to the server
+        RestConnector connector = new RestConnector(new HashMap<String, String>(), server.getBaseUrl(), "DEFAULT", "Test",
+                new PooledHttpTransport(2, 2, 10000));
+        final HpAlmSession session = HpAlmSession.create(connector, "test1", "test1234");
+        EntityCache cache = new EntityCache();
+        session.setEntityCache(cache);
+
+        assertEquals("Passed", session.getEntity("test-instance", 2).getStringFieldValue("status"));
+        assertEquals("Passed", session.getEntity("test-instance", 2).getStringFieldValue("status"));
+        assertEquals(1, entityRequests.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // projections are not cached
+        session.getEntity("test-instance", 2, "status");
+        assertEquals(2, entityRequests.get());
+
+        // updates invalidate the cached entity
+        Entity update = new TestInstanceBuilder().setStatus("Failed").create();
+        session.updateEntity(2, update);
+        assertEquals("Failed", session.getEntity("test-instance", 2).getStringFieldValue("status"));
+        assertEquals(3, entityRequests.get());
+
+        // an entity read before a concurrent update is returned, but not cached
+        delayNextRead.set(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Entity> read = executor.submit(new Callable<Entity>() {
+            @Override
+            public Entity call() throws Exception {
+                return session.getEntity("test-instance", 4);
+            }
+        });
+        assertTrue(readStarted.await(10, TimeUnit.SECONDS));
+        session.updateEntity(4, update);
+        updated.countDown();
+        assertEquals("Passed", read.get(10, TimeUnit.SECONDS).getStringFieldValue("status"));
+        assertEquals("Failed", session.getEntity("test-instance", 4).getStringFieldValue("status"));
+        executor.shutdown();
+
+        // as do deletions
+        session.deleteEntity("test-instance", 2);
+        try {
+            session.getEntity("test-instance", 2);
+            fail("Expected HpAlmException for deleted entity");
+        } catch (HpAlmException e) {
+            // expected
+        }
+
+        session.logout();
+        connector.close();
+        server.stopServer();
+    }
+
+    private static byte[] downloadAttachment(HpAlmSession session, Entity entity, String name) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        session.downloadAttachment(entity, name, baos);
+        return baos.toByteArray();
+    }
+
+    private static void addField(Entity e, String name, String value) {
+        Field f = new Field();
+        f.setName(name);
+        f.getValue().add(value);
+        e.getFields().getFieldList().add(f);
+    }
+
+    private static List<Entity> createTestInstances(int count) {
+        List<Entity> result = new ArrayList<Entity>();
+        for (int i = 1; i <= count; i++) {
+            Entity e = new TestInstanceBuilder().setStatus(i % 2 == 0 ? "Passed" : "Failed").create();
+            Field id = new Field();
+            id.setName("id");
+            id.getValue().add(Integer.toString(i));
+            e.getFields().getFieldList().add(id);
+            result.add(e);
+        }
+        return result;
+    }
+
+    private static void assertSequentialIds(Iterable<Entity> entities, int expectedCount) {
+        long expectedId = 1;
+        for (Entity e : entities) {
+            assertEquals(expectedId++, e.getId());
+        }
+        assertEquals(expectedCount + 1, expectedId);
+    }
+
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HttpCompressionTest {
+
+    private static final String XML = "<Entities TotalResults=\"1\"><Entity Type=\"run\"><Fields>"
+            + "<Field Name=\"id\"><Value>1</Value></Field></Fields></Entity></Entities>";
+
+    @Test
+    public void testGzipRoundTrip() throws Exception {
+        byte[] data = XML.getBytes("UTF-8");
+        InputStream in = HttpCompression.decode(new ByteArrayInputStream(HttpCompression.gzip(data)), "gzip");
+        assertArrayEquals(data, IOUtils.toByteArray(in));
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        byte[] data = XML.getBytes("UTF-8");
+
+        // zlib wrapped, as specified
+        InputStream in = HttpCompression.decode(new ByteArrayInputStream(deflate(data, false)), "deflate");
+        assertArrayEquals(data, IOUtils.toByteArray(in));
+
+        // raw deflate, as sent by some servers
+        in = HttpCompression.decode(new ByteArrayInputStream(deflate(data, true)), "Deflate");
+        assertArrayEquals(data, IOUtils.toByteArray(in));
+    }
+
+    @Test
+    public void testEmptyAndIdentity() throws Exception {
+        InputStream in = HttpCompression.decode(new ByteArrayInputStream(new byte[0]), "gzip");
+        assertEquals(-1, in.read());
+
+        byte[] data = XML.getBytes("UTF-8");
+        in = HttpCompression.decode(new ByteArrayInputStream(data), null);
+        assertArrayEquals(data, IOUtils.toByteArray(in));
+    }
+
+    private static byte[] deflate(byte[] data, boolean raw) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream(baos, new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+        out.write(data);
+        out.close();
+        return baos.toByteArray();
+    }
+
+}
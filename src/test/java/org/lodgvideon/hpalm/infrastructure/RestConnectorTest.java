@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.junit.Test;
+import org.lodgvideon.hpalm.testutil.MockingTestServer;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RestConnectorTest {
+
+    @Test
+    public void testCookieSnapshot() {
+        Map<String, String> initial = new HashMap<String, String>();
+        initial.put("A", "1");
+        RestConnector connector = new RestConnector(initial, "http://localhost", "DEFAULT", "Test");
+
+        // the connector must not be affected by later changes of the initial map
+        initial.put("B", "2");
+        assertEquals("A=1;", connector.getCookieString());
+
+        Map<String, String> snapshot = connector.getCookies();
+        try {
+            snapshot.put("B", "2");
+            fail("Cookie snapshot must not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        // header is cached until the cookies actually change
+        String header = connector.getCookieString();
+        connector.setCookie("A", "1");
+        assertSame(header, connector.getCookieString());
+
+        connector.setCookie("B", "2");
+        assertEquals("A=1;B=2;", connector.getCookieString());
+        assertEquals(1, snapshot.size());
+    }
+
+    @Test
+    public void testConcurrentCookieUpdates() throws Exception {
+        final RestConnector connector = new RestConnector(null, "http://localhost", "DEFAULT", "Test");
+        final int threadCount = 8;
+        final int cookiesPerThread = 50;
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int threadIndex = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < cookiesPerThread; j++) {
+                        connector.setCookie("C" + threadIndex + "_" + j, "" + j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threadCount * cookiesPerThread, connector.getCookies().size());
+    }
+
+    @Test
+    public void testRetryAndCircuitBreaker() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger(2);
+        MockingTestServer server = new MockingTestServer();
+        server.setHpAlmServlet(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                requests.incrementAndGet();
+                if (failures.getAndDecrement() > 0) {
+                    resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                } else {
+                    resp.getWriter().write("OK");
+                }
+            }
+        });
+        server.startServer();
+
+        try {
+            RestConnector connector = new RestConnector(null, server.getBaseUrl(), "DEFAULT", "Test");
+            connector.setRetryPolicy(new RetryPolicy(3, 10, 50));
+            connector.setCircuitBreaker(new CircuitBreaker(3, 60000));
+            Map<String, String> headers = Collections.emptyMap();
+
+            // two 503 responses are retried transparently
+            Response response = connector.httpGet(connector.buildUrl("rest/test"), null, headers);
+            assertEquals(200, response.getStatusCode());
+            assertEquals(3, requests.get());
+
+            // 503 means the request has not been processed, so POST is retried as well
+            failures.set(3);
+            requests.set(0);
+            response = connector.httpPost(connector.buildUrl("rest/test"), new byte[0], headers);
+            assertEquals(503, response.getStatusCode());
+            assertEquals(3, requests.get());
+            assertEquals(CircuitBreaker.State.OPEN, connector.getCircuitBreaker().getState());
+
+            try {
+                connector.httpGet(connector.buildUrl("rest/test"), null, headers);
+                fail("Expected open circuit breaker");
+            } catch (CircuitBreakerOpenException e) {
+                assertTrue(connector.getCircuitBreaker().getRejectedCount() > 0);
+            }
+            assertEquals(3, requests.get());
+        } finally {
+            server.stopServer();
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testShouldRetry() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+
+        assertTrue(policy.shouldRetry("GET", 503, 1));
+        assertTrue(policy.shouldRetry("PUT", 504, 2));
+        assertFalse(policy.shouldRetry("GET", 503, 3));
+        assertFalse(policy.shouldRetry("GET", 500, 1));
+        assertTrue(policy.shouldRetry("POST", 503, 1));
+        assertFalse(policy.shouldRetry("POST", 502, 1));
+
+        assertTrue(policy.shouldRetry("GET", new SocketTimeoutException(), 1));
+        assertTrue(policy.shouldRetry("POST", new ConnectException(), 1));
+        assertFalse(policy.shouldRetry("POST", new IOException(), 1));
+        assertFalse(policy.shouldRetry("GET", new InterruptedIOException(), 1));
+
+        // a repeated DELETE fails if the first one has been processed
+        assertFalse(policy.shouldRetry("DELETE", new SocketTimeoutException(), 1));
+        assertFalse(policy.shouldRetry("DELETE", 504, 1));
+        assertTrue(policy.shouldRetry("DELETE", new ConnectException(), 1));
+        assertTrue(policy.shouldRetry("DELETE", 503, 1));
+    }
+
+    @Test
+    public void testDelay() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+
+        for (int attempt = 1; attempt < 10; attempt++) {
+            long delay = policy.getDelayMillis(attempt, null);
+            assertTrue(delay >= 0 && delay <= Math.min(1000, 100 << (attempt - 1)));
+        }
+
+        // Retry-After is respected up to the maximum delay
+        assertEquals(1000, policy.getDelayMillis(1, "30"));
+        assertTrue(policy.getDelayMillis(1, "invalid") <= 100);
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.infrastructure;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lodgvideon.hpalm.entity.Entity;
+import org.lodgvideon.hpalm.entity.Field;
+import org.lodgvideon.hpalm.entity.Fields;
+import org.lodgvideon.hpalm.testutil.DefaultHpAlmServlet;
+import org.lodgvideon.hpalm.testutil.MockingTestServer;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestSetFolderIndexTest {
+
+    private MockingTestServer server;
+
+    private HpAlmSession session;
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockingTestServer();
+        DefaultHpAlmServlet servlet = new DefaultHpAlmServlet() {
+            @Override
+            protected void handleCollection(HttpServletRequest request, HttpServletResponse response, String domain,
+                                            String project, String typeName) throws ServletException, IOException {
+                requestCount.incrementAndGet();
+                super.handleCollection(request, response, domain, project, typeName);
+            }
+
+            @Override
+            protected void handleEntity(HttpServletRequest request, HttpServletResponse response, String typeName,
+                                        long id) throws ServletException, IOException {
+                requestCount.incrementAndGet();
+                super.handleEntity(request, response, typeName, id);
+            }
+        };
+        server.setHpAlmServlet(servlet);
+        server.startServer();
+
+        Entity root = new Entity();
+        root.setType("test-set-folder");
+        root.setFields(new Fields());
+        addField(root, "id", "1");
+        addField(root, "name", "Root");
+        addField(root, "parent-id", "0");
+        List<Entity> folders = new ArrayList<Entity>();
+        folders.add(root);
+        servlet.setEntities("test-set-folder", folders);
+
+        session = HpAlmSession.create(server.getBaseUrl(), "DEFAULT", "Test", "test1", "test1234");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        session.logout();
+        server.stopServer();
+    }
+
+    @Test
+    public void testKnownPathsNeedNoQueries() throws Exception {
+        TestSetFolderIndex index = new TestSetFolderIndex();
+
+        Entity folder = HpAlmUtil.createTestSetFolderPath(session, "Root/a/b/c", index);
+        assertEquals("c", folder.getStringFieldValue("name"));
+        // root, and query and creation of each sub folder
+        assertEquals(7, requestCount.getAndSet(0));
+
+        // only the folder itself is retrieved
+        Entity again = HpAlmUtil.createTestSetFolderPath(session, "Root/a/b/c", index);
+        assertEquals(folder.getId(), again.getId());
+        assertEquals(1, requestCount.getAndSet(0));
+
+        HpAlmUtil.createTestSetFolderPath(session, "Root/a/b/d", index);
+        assertEquals(2, requestCount.getAndSet(0));
+
+        // intermediate folder: only the ID is known
+        assertEquals("a", HpAlmUtil.createTestSetFolderPath(session, "Root/a", index).getStringFieldValue("name"));
+        assertEquals(1, requestCount.getAndSet(0));
+
+        // the entity cache of the session serves known folders
+        session.setEntityCache(new EntityCache());
+        HpAlmUtil.createTestSetFolderPath(session, "Root/a", index);
+        assertEquals(1, requestCount.getAndSet(0));
+        HpAlmUtil.createTestSetFolderPath(session, "Root/a", index);
+        assertEquals(0, requestCount.getAndSet(0));
+
+        assertEquals(13, index.getHitCount());
+        assertEquals(5, index.getMissCount());
+    }
+
+    @Test
+    public void testFoldersAreNotStale() throws Exception {
+        TestSetFolderIndex index = new TestSetFolderIndex();
+
+        Entity folder = HpAlmUtil.createTestSetFolderPath(session, "Root/a", index);
+        assertNull(folder.getStringFieldValue("description"));
+
+        Entity update = new Entity();
+        update.setType("test-set-folder");
+        update.setFields(new Fields());
+        addField(update, "description", "updated");
+        session.updateEntity(folder.getId(), update);
+
+        assertEquals("updated", HpAlmUtil.createTestSetFolderPath(session, "Root/a", index)
+                .getStringFieldValue("description"));
+    }
+
+    @Test
+    public void testValidation() throws Exception {
+        TestSetFolderIndex index = new TestSetFolderIndex();
+        index.setValidationInterval(0, TimeUnit.MILLISECONDS);
+
+        Entity c = HpAlmUtil.createTestSetFolderPath(session, "Root/a/b/c", index);
+        requestCount.set(0);
+
+        // one request validates the whole path, one retrieves the folder
+        assertEquals(c.getId(), HpAlmUtil.createTestSetFolderPath(session, "Root/a/b/c", index).getId());
+        assertEquals(2, requestCount.get());
+
+        // deleted folders are created again, while the valid prefix is kept
+        Entity b = HpAlmUtil.createTestSetFolderPath(session, "Root/a/b", index);
+        session.deleteEntity(b);
+        session.deleteEntity(c);
+        requestCount.set(0);
+        Entity newC = HpAlmUtil.createTestSetFolderPath(session, "Root/a/b/c", index);
+        assertEquals("c", newC.getStringFieldValue("name"));
+        // validation, and query and creation of b and c
+        assertEquals(5, requestCount.get());
+        assertEquals(1, session.countEntities("test-set-folder", "name['b']"));
+        assertEquals(1, session.countEntities("test-set-folder", "name['c']"));
+    }
+
+    @Test
+    public void testConcurrentCreation() throws Exception {
+        final TestSetFolderIndex index = new TestSetFolderIndex();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Entity>> results = new ArrayList<Future<Entity>>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(new Callable<Entity>() {
+                @Override
+                public Entity call() throws Exception {
+                    return HpAlmUtil.createTestSetFolderPath(session, "Root/x/y", index);
+                }
+            }));
+        }
+        long id = results.get(0).get().getId();
+        for (Future<Entity> result : results) {
+            assertEquals(id, result.get().getId());
+        }
+        executor.shutdown();
+
+        assertEquals(1, session.countEntities("test-set-folder", "name['x']"));
+        assertEquals(1, session.countEntities("test-set-folder", "name['y']"));
+    }
+
+    private static void addField(Entity e, String name, String value) {
+        Field f = new Field();
+        f.setName(name);
+        f.getValue().add(value);
+        e.getFields().getFieldList().add(f);
+    }
+
+}
@@ -25,8 +25,8 @@ import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DefaultAuthenticationEndpoint extends AbstractXmlEndpoint {
 
@@ -39,12 +39,12 @@ public class DefaultAuthenticationEndpoint extends AbstractXmlEndpoint {
     /**
      * Map LWSSO_KEY -> User Name
      */
-    private Map<String, String> activeUsers = new HashMap<String, String>();
+    private Map<String, String> activeUsers = new ConcurrentHashMap<String, String>();
 
     /**
      * Map LWSSO key -> QCSession key
      */
-    private Map<String, String> activeSessions = new HashMap<String, String>();
+    private Map<String, String> activeSessions = new ConcurrentHashMap<String, String>();
 
     @Override
     public void handle(HttpServletRequest request, ResponseXmlBuilder builder) throws IOException, ServletException,
@@ -174,7 +174,18 @@ public class DefaultAuthenticationEndpoint extends AbstractXmlEndpoint {
     }
 
     protected void handleExtendSession(HttpServletRequest request, ResponseXmlBuilder builder) throws HttpException {
-        // can safely be ignored
+        String key = getLwssoKey(request);
+        if (key == null || !activeUsers.containsKey(key)) {
+            throw new HttpException(HttpServletResponse.SC_UNAUTHORIZED);
+        }
+    }
+
+    /**
+     * Simulates expiry of all sessions, e.g. by a server restart.
+     */
+    public void expireAllSessions() {
+        activeUsers.clear();
+        activeSessions.clear();
     }
 
     protected void handleEndSession(HttpServletRequest request, ResponseXmlBuilder builder) throws HttpException {
@@ -186,7 +197,11 @@ public class DefaultAuthenticationEndpoint extends AbstractXmlEndpoint {
     }
 
     protected final String getQCSessionKey(HttpServletRequest request) {
-        for (Cookie cookie : request.getCookies()) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return null;
+        }
+        for (Cookie cookie : cookies) {
             if (QCSESSION_COOKIE_KEY.equals(cookie.getName())) {
                 return cookie.getValue();
             }
@@ -195,7 +210,11 @@ public class DefaultAuthenticationEndpoint extends AbstractXmlEndpoint {
     }
 
     protected final String getLwssoKey(HttpServletRequest request) {
-        for (Cookie cookie : request.getCookies()) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return null;
+        }
+        for (Cookie cookie : cookies) {
             if (LWSSO_COOKIE_KEY.equals(cookie.getName())) {
                 return cookie.getValue();
             }
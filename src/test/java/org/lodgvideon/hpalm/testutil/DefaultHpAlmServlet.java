@@ -15,10 +15,12 @@
  */
 package org.lodgvideon.hpalm.testutil;
 
+import org.apache.commons.io.IOUtils;
 import org.eclipse.jetty.http.HttpException;
 import org.lodgvideon.hpalm.entity.Entity;
 import org.lodgvideon.hpalm.entity.EntityResultSet;
 import org.lodgvideon.hpalm.entity.Field;
+import org.lodgvideon.hpalm.entity.Fields;
 import org.lodgvideon.hpalm.infrastructure.EntityMarshallingUtils;
 
 import javax.servlet.ServletException;
@@ -27,6 +29,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.bind.JAXBException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -37,10 +41,21 @@ public class DefaultHpAlmServlet extends HttpServlet {
 
     private static final Pattern PATTERN_COLLECTION = Pattern.compile("/rest/domains/([^/]+)/projects/([^/]+)/(.*)s");
 
+    private static final Pattern PATTERN_ATTACHMENTS = Pattern
+            .compile("/rest/domains/([^/]+)/projects/([^/]+)/([^/]+)s/([0-9]+)/attachments(/([^/]+))?");
+
+    private static final Pattern PATTERN_ENTITY = Pattern
+            .compile("/rest/domains/([^/]+)/projects/([^/]+)/([^/]+)s/([0-9]+)");
+
     private static final Pattern PATTERN_FILTER = Pattern.compile("([^\\[]+)\\[([^\\]]+)\\]");
 
     private Map<String, List<Entity>> entities = new HashMap<String, List<Entity>>();
 
+    /**
+     * Map type/id -> (attachment name -> data)
+     */
+    private Map<String, Map<String, byte[]>> attachments = new HashMap<String, Map<String, byte[]>>();
+
     private DefaultAuthenticationEndpoint authenticationEndpoint = new DefaultAuthenticationEndpoint();
 
     private DefaultTimeEndpoint timeEndpoint = new DefaultTimeEndpoint();
@@ -53,6 +68,10 @@ public class DefaultHpAlmServlet extends HttpServlet {
         this.authenticationEndpoint = authenticationEndpoint;
     }
 
+    public DefaultAuthenticationEndpoint getAuthenticationEndpoint() {
+        return authenticationEndpoint;
+    }
+
     public void setTimeEndpoint(DefaultTimeEndpoint timeEndpoint) {
         this.timeEndpoint = timeEndpoint;
     }
@@ -76,8 +95,26 @@ public class DefaultHpAlmServlet extends HttpServlet {
             return;
         }
 
+        if (!authenticationEndpoint.checkLwssoHeader(req, resp)) {
+            return;
+        }
+
+        // attachments
+        Matcher matcher = PATTERN_ATTACHMENTS.matcher(path);
+        if (matcher.matches()) {
+            handleAttachments(req, resp, matcher.group(3) + "/" + matcher.group(4), matcher.group(6));
+            return;
+        }
+
+        // single entities
+        matcher = PATTERN_ENTITY.matcher(path);
+        if (matcher.matches()) {
+            handleEntity(req, resp, matcher.group(3), Long.parseLong(matcher.group(4)));
+            return;
+        }
+
         // collections
-        Matcher matcher = PATTERN_COLLECTION.matcher(path);
+        matcher = PATTERN_COLLECTION.matcher(path);
         if (matcher.matches()) {
             handleCollection(req, resp, matcher.group(1), matcher.group(2), matcher.group(3));
             return;
@@ -88,6 +125,11 @@ public class DefaultHpAlmServlet extends HttpServlet {
 
     protected void handleCollection(HttpServletRequest request, HttpServletResponse response, String domain, String project,
                                     String typeName) throws ServletException, IOException {
+        if ("POST".equals(request.getMethod())) {
+            handleCreate(request, response, typeName);
+            return;
+        }
+
         // extract potential parameters from query
         String query = request.getParameter("query");
         int pageSize;
@@ -123,26 +165,186 @@ public class DefaultHpAlmServlet extends HttpServlet {
         int totalResults = allEntities.size();
 
         // scroll to start index
-        while (startIndex > 0) {
-            allEntities.remove(0);
-        }
+        allEntities = new ArrayList<Entity>(allEntities.subList(Math.min(startIndex, allEntities.size()),
+                allEntities.size()));
         // reduce to page size
         while (allEntities.size() > pageSize) {
             allEntities.remove(allEntities.size() - 1);
         }
 
+        // reduce to requested fields
+        String fields = request.getParameter("fields");
+        if (fields != null) {
+            allEntities = projectEntities(allEntities, Arrays.asList(fields.split(",")));
+        }
+
         // build EntityResultSet
         EntityResultSet resultSet = new EntityResultSet(allEntities);
         resultSet.setTotalResults(totalResults);
 
         // render to XML
+        writeXml(response, HttpServletResponse.SC_OK, resultSet);
+    }
+
+    protected synchronized void handleCreate(HttpServletRequest request, HttpServletResponse response, String typeName)
+            throws ServletException, IOException {
+        Entity entity;
+        try {
+            entity = EntityMarshallingUtils.marshal(Entity.class, IOUtils.toString(request.getInputStream(), "UTF-8"));
+        } catch (JAXBException e) {
+            throw new HttpException(400);
+        }
+
+        List<Entity> allEntities = new ArrayList<Entity>(getAllEntities(typeName));
+        long id = 0;
+        for (Entity e : allEntities) {
+            id = Math.max(id, e.getId());
+        }
+        addField(entity, "id", Long.toString(id + 1));
+        allEntities.add(entity);
+        entities.put(typeName, allEntities);
+
+        writeXml(response, HttpServletResponse.SC_CREATED, entity);
+    }
+
+    protected void handleEntity(HttpServletRequest request, HttpServletResponse response, String typeName, long id)
+            throws ServletException, IOException {
+        List<Entity> allEntities = new ArrayList<Entity>(getAllEntities(typeName));
+        Entity entity = null;
+        for (Entity e : allEntities) {
+            if (e.getId() == id) {
+                entity = e;
+            }
+        }
+        if (entity == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        if ("DELETE".equals(request.getMethod())) {
+            allEntities.remove(entity);
+            entities.put(typeName, allEntities);
+        } else if ("PUT".equals(request.getMethod())) {
+            // replace the updated fields
+            Entity updateValues;
+            try {
+                updateValues = EntityMarshallingUtils.marshal(Entity.class, IOUtils.toString(request.getInputStream(),
+                        "UTF-8"));
+            } catch (JAXBException e) {
+                throw new HttpException(400);
+            }
+            Entity updated = new Entity(entity);
+            for (Field f : updateValues.getFields().getFieldList()) {
+                Iterator<Field> iter = updated.getFields().getFieldList().iterator();
+                while (iter.hasNext()) {
+                    if (iter.next().getName().equals(f.getName())) {
+                        iter.remove();
+                    }
+                }
+                updated.getFields().getFieldList().add(f);
+            }
+            allEntities.set(allEntities.indexOf(entity), updated);
+            entities.put(typeName, allEntities);
+            entity = updated;
+        } else {
+            // reduce to requested fields
+            String fields = request.getParameter("fields");
+            if (fields != null) {
+                entity = projectEntities(Collections.singletonList(entity), Arrays.asList(fields.split(","))).get(0);
+            }
+        }
+
+        writeXml(response, HttpServletResponse.SC_OK, entity);
+    }
+
+    protected List<Entity> projectEntities(List<Entity> entities, List<String> fieldNames) {
+        List<Entity> result = new ArrayList<Entity>();
+        for (Entity entity : entities) {
+            Entity projected = new Entity();
+            projected.setType(entity.getType());
+            projected.setFields(new Fields());
+            for (Field f : entity.getFields().getFieldList()) {
+                if ("id".equals(f.getName()) || fieldNames.contains(f.getName())) {
+                    projected.getFields().getFieldList().add(f);
+                }
+            }
+            result.add(projected);
+        }
+        return result;
+    }
+
+    protected void handleAttachments(HttpServletRequest request, HttpServletResponse response, String owner,
+                                     String attachmentName) throws ServletException, IOException {
+        Map<String, byte[]> ownerAttachments = attachments.get(owner);
+        if (ownerAttachments == null) {
+            ownerAttachments = new LinkedHashMap<String, byte[]>();
+            attachments.put(owner, ownerAttachments);
+        }
+
+        if ("POST".equals(request.getMethod()) && attachmentName == null) {
+            String name = request.getHeader("Slug");
+            InputStream in = request.getInputStream();
+            try {
+                ownerAttachments.put(name, IOUtils.toByteArray(in));
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+            writeXml(response, HttpServletResponse.SC_CREATED, createAttachmentEntity(name, ownerAttachments.get(name)));
+            return;
+        }
+
+        if (!"GET".equals(request.getMethod())) {
+            super.service(request, response);
+            return;
+        }
+
+        if (attachmentName == null) {
+            List<Entity> result = new ArrayList<Entity>();
+            for (Map.Entry<String, byte[]> entry : ownerAttachments.entrySet()) {
+                result.add(createAttachmentEntity(entry.getKey(), entry.getValue()));
+            }
+            EntityResultSet resultSet = new EntityResultSet(result);
+            resultSet.setTotalResults(result.size());
+            writeXml(response, HttpServletResponse.SC_OK, resultSet);
+            return;
+        }
+
+        byte[] data = ownerAttachments.get(attachmentName);
+        if (data == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/octet-stream");
+        OutputStream os = response.getOutputStream();
+        os.write(data);
+        os.close();
+    }
+
+    private Entity createAttachmentEntity(String name, byte[] data) {
+        Entity e = new Entity();
+        e.setType("attachment");
+        e.setFields(new Fields());
+        addField(e, "name", name);
+        addField(e, "file-size", String.valueOf(data.length));
+        return e;
+    }
+
+    private static void addField(Entity e, String name, String value) {
+        Field f = new Field();
+        f.setName(name);
+        f.getValue().add(value);
+        e.getFields().getFieldList().add(f);
+    }
+
+    private void writeXml(HttpServletResponse response, int statusCode, Object jaxbObject) throws IOException {
         try {
-            String xml = EntityMarshallingUtils.unmarshal(EntityResultSet.class, resultSet);
+            String xml = EntityMarshallingUtils.unmarshal(jaxbObject.getClass(), jaxbObject);
             // remove XML header
             xml = xml.replaceAll("<\\?[^\\?]+\\?>", "");
 
-            // write to response
             ResponseXmlBuilder builder = new ResponseXmlBuilder();
+            builder.setStatusCode(statusCode);
             builder.writeMarkup(xml);
             builder.applyTo(response);
         } catch (JAXBException e) {
@@ -187,11 +389,27 @@ public class DefaultHpAlmServlet extends HttpServlet {
         }
         String fieldValue = f.getValue().get(0);
 
+        if (criteria.contains(" OR ")) {
+            for (String alternative : criteria.split(" OR ")) {
+                if (matchesCriteria(f, alternative.trim())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         if (criteria.startsWith(">")) {
+            boolean inclusive = criteria.startsWith(">=");
+            criteria = criteria.substring(inclusive ? 2 : 1).trim();
+            if (criteria.startsWith("'") && criteria.endsWith("'")) {
+                // string comparison, e.g. for timestamps
+                int cmp = fieldValue.compareTo(criteria.substring(1, criteria.length() - 1));
+                return inclusive ? cmp >= 0 : cmp > 0;
+            }
             try {
-                double value = Double.parseDouble(criteria.substring(1).trim());
+                double value = Double.parseDouble(criteria);
                 double fv = Double.parseDouble(fieldValue);
-                return fv > value;
+                return inclusive ? fv >= value : fv > value;
             } catch (Exception e) {
                 return false;
             }
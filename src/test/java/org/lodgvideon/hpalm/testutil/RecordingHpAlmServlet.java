@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lodgvideon.hpalm.testutil;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link DefaultHpAlmServlet} recording the URLs of all collection requests, including the query string.
+ */
+public class RecordingHpAlmServlet extends DefaultHpAlmServlet {
+
+    private final List<String> requestedUrls = Collections.synchronizedList(new ArrayList<String>());
+
+    public List<String> getRequestedUrls() {
+        return requestedUrls;
+    }
+
+    @Override
+    protected void handleCollection(HttpServletRequest request, HttpServletResponse response, String domain, String project,
+                                    String typeName) throws ServletException, IOException {
+        requestedUrls.add(request.getRequestURL() + "?" + request.getQueryString());
+        super.handleCollection(request, response, domain, project, typeName);
+    }
+
+}